@@ -0,0 +1,126 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.kazimierak.kacper.fancygallerylikephotopicker.lists.PathTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Tests of BitmapMemoryCache lookups done while binding grid cells, path of the cell is read from
+ * PathTable into reused builder and the thumbnail is acquired from the cache with it.
+ */
+
+@RunWith(AndroidJUnit4.class)
+public class BitmapMemoryCacheTest {
+
+    private static final int SIZE = 120;
+    private static final int PATH_COUNT = 100;
+    private static final int LOOKUP_COUNT = 10000;
+
+    private BitmapMemoryCache cache;
+    private PathTable paths;
+
+    @Before
+    public void fillCache() {
+        cache = new BitmapMemoryCache(PATH_COUNT * SIZE * SIZE * 4);
+        paths = new PathTable();
+        for (int i = 0; i < PATH_COUNT; i++) {
+            paths.add("/sdcard/DCIM/Camera/IMG_" + i + ".jpg");
+            cache.put(paths.get(i), SIZE, Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        }
+    }
+
+    @After
+    public void clearCache() {
+        cache.clear();
+    }
+
+    @Test
+    public void builderFindsEntryStoredWithString() {
+        final StringBuilder path = new StringBuilder();
+
+        assertNotNull(cache.get(paths.getPath(1, path), SIZE));
+        assertSame(cache.get(paths.get(1), SIZE), cache.get(paths.getPath(1, path), SIZE));
+        assertNull(cache.get(path, 2 * SIZE));
+        path.setLength(0);
+        assertNull(cache.get(path.append("/sdcard/DCIM/Camera/IMG_1.png"), SIZE));
+    }
+
+    @Test
+    public void builderRemovesEntry() {
+        final StringBuilder path = new StringBuilder();
+        cache.remove(paths.getPath(2, path), SIZE);
+
+        assertNull(cache.get(paths.get(2), SIZE));
+        assertNotNull(cache.get(paths.get(3), SIZE));
+    }
+
+    /*
+     * Binding cells whose thumbnails are cached must not allocate, objects allocated by the
+     * thread are counted by the runtime
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void lookupOfBoundCellDoesNotAllocate() {
+        final StringBuilder path = new StringBuilder(128);
+        // Warm up, so builder grows and classes are loaded before counting
+        assertEquals(LOOKUP_COUNT, acquireAll(path));
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        final int found = acquireAll(path);
+        final int allocated = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertEquals(LOOKUP_COUNT, found);
+        // Path String or key created for every lookup would give at least LOOKUP_COUNT objects
+        assertTrue("Allocated " + allocated + " objects", allocated < PATH_COUNT);
+    }
+
+    private int acquireAll(StringBuilder path) {
+        int found = 0;
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            final Bitmap bitmap = cache.acquire(paths.getPath(i % PATH_COUNT, path), SIZE);
+            if (bitmap != null) found++;
+            BitmapPool.getInstance().release(bitmap);
+        }
+        return found;
+    }
+}
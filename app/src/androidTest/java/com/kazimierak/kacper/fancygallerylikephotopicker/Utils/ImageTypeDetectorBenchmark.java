@@ -0,0 +1,170 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Compares detection of images during a scan with ImageTypeDetector, which reads only signature
+ * of every file, against BitmapFactory decoding bounds of every file. Folder holds photos mixed
+ * with videos, like a camera folder. Times are logged and checked.
+ */
+
+@RunWith(AndroidJUnit4.class)
+public class ImageTypeDetectorBenchmark {
+
+    private final static String DEBUG_TAG = "ImageTypeDetectorBench";
+
+    private static final int PHOTO_COUNT = 100;
+    private static final int OTHER_COUNT = 100;
+    private static final int OTHER_LENGTH = 512 * 1024;
+    private static final int RUNS = 5;
+
+    private File folder;
+    private File[] files;
+    private long[] lengths;
+
+    @Before
+    public void createFiles() throws IOException {
+        folder = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "benchmark");
+        folder.mkdirs();
+        final List<File> created = new ArrayList<>();
+        final Bitmap bitmap = Bitmap.createBitmap(2048, 1536, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.DKGRAY);
+        for (int i = 0; i < PHOTO_COUNT; i++) {
+            final File file = new File(folder, "IMG_" + i + ".jpg");
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            } finally {
+                out.close();
+            }
+            created.add(file);
+        }
+        bitmap.recycle();
+
+        // Videos with MP4 signature, followed by random data
+        final Random random = new Random(42);
+        final byte[] data = new byte[OTHER_LENGTH];
+        final byte[] signature = {0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'};
+        for (int i = 0; i < OTHER_COUNT; i++) {
+            random.nextBytes(data);
+            System.arraycopy(signature, 0, data, 0, signature.length);
+            final File file = new File(folder, "VID_" + i + ".mp4");
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            created.add(file);
+        }
+
+        files = created.toArray(new File[created.size()]);
+        lengths = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lengths[i] = files[i].length();
+        }
+    }
+
+    @After
+    public void deleteFiles() {
+        for (File file : files) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void detectorIsFasterThanBitmapFactory() {
+        final ImageTypeDetector detector = new ImageTypeDetector();
+        // Warm up, so both are measured with files in page cache
+        assertEquals(PHOTO_COUNT, countWithDetector(detector));
+        assertEquals(PHOTO_COUNT, countWithBitmapFactory());
+
+        long detectorTime = Long.MAX_VALUE;
+        long bitmapFactoryTime = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            countWithDetector(detector);
+            detectorTime = Math.min(detectorTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            countWithBitmapFactory();
+            bitmapFactoryTime =
+                    Math.min(bitmapFactoryTime, System.nanoTime() - start);
+        }
+
+        final String result = files.length + " files, ImageTypeDetector: "
+                + detectorTime / 1000 + " us, BitmapFactory bounds: "
+                + bitmapFactoryTime / 1000 + " us";
+        Log.i(DEBUG_TAG, result);
+        assertTrue(result, detectorTime < bitmapFactoryTime);
+    }
+
+    /*
+     * Scanner knows length of every file from listing, only the signature is read
+     */
+    private int countWithDetector(ImageTypeDetector detector) {
+        int count = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (detector.isImage(files[i], lengths[i])) count++;
+        }
+        return count;
+    }
+
+    private int countWithBitmapFactory() {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        int count = 0;
+        for (File file : files) {
+            options.outWidth = -1;
+            BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            if (options.outWidth > 0) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,202 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Compares time of decoding grid thumbnail from JPEG thumbnail embedded in EXIF data against
+ * decoding the same photo without embedded thumbnail, which samples the whole image. Times are
+ * logged and checked.
+ */
+
+@RunWith(AndroidJUnit4.class)
+public class PhotoLoaderBenchmark {
+
+    private final static String DEBUG_TAG = "PhotoLoaderBenchmark";
+
+    private static final int PHOTO_WIDTH = 2048;
+    private static final int PHOTO_HEIGHT = 1536;
+    private static final int THUMBNAIL_WIDTH = 160;
+    private static final int THUMBNAIL_HEIGHT = 120;
+    private static final int SIZE = 120;
+    private static final int RUNS = 20;
+
+    private File withThumbnail;
+    private File withoutThumbnail;
+
+    @Before
+    public void createPhotos() throws IOException {
+        final File folder = InstrumentationRegistry.getTargetContext().getCacheDir();
+        final Bitmap photo = createPhoto(PHOTO_WIDTH, PHOTO_HEIGHT);
+        final byte[] jpeg = compress(photo);
+        photo.recycle();
+        final Bitmap thumbnail = createPhoto(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+        final byte[] thumbnailJpeg = compress(thumbnail);
+        thumbnail.recycle();
+
+        withoutThumbnail = write(new File(folder, "without_thumbnail.jpg"), jpeg);
+        withThumbnail = write(new File(folder, "with_thumbnail.jpg"),
+                addExifThumbnail(jpeg, thumbnailJpeg));
+    }
+
+    @After
+    public void deletePhotos() {
+        withThumbnail.delete();
+        withoutThumbnail.delete();
+        ImageInfoCache.getInstance().remove(withThumbnail.getAbsolutePath());
+        ImageInfoCache.getInstance().remove(withoutThumbnail.getAbsolutePath());
+    }
+
+    @Test
+    public void embeddedThumbnailIsDecodedFaster() {
+        final PhotoLoader loader = new PhotoLoader();
+        final String thumbnailPath = withThumbnail.getAbsolutePath();
+        final String photoPath = withoutThumbnail.getAbsolutePath();
+        assertTrue(loader.readImageInfo(thumbnailPath).hasThumbnail());
+        assertFalse(loader.readImageInfo(photoPath).hasThumbnail());
+        // Warm up, headers are cached by both paths
+        decode(loader, thumbnailPath);
+        decode(loader, photoPath);
+
+        long thumbnailTime = Long.MAX_VALUE;
+        long photoTime = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            decode(loader, thumbnailPath);
+            thumbnailTime = Math.min(thumbnailTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            decode(loader, photoPath);
+            photoTime = Math.min(photoTime, System.nanoTime() - start);
+        }
+
+        final String result = PHOTO_WIDTH + "x" + PHOTO_HEIGHT + " photo to " + SIZE + "x" + SIZE
+                + ", embedded thumbnail: " + thumbnailTime / 1000 + " us, sampled photo: "
+                + photoTime / 1000 + " us";
+        Log.i(DEBUG_TAG, result);
+        assertTrue(result, thumbnailTime < photoTime);
+    }
+
+    /*
+     * Decode grid thumbnail like DecodeJob does, the bitmap goes back to the pool
+     */
+    private static void decode(PhotoLoader loader, String path) {
+        final Bitmap bitmap = loader.decodePhoto(path, SIZE, SIZE, PhotoLoader.SCALE_MODE_CROP,
+                new BitmapFactory.Options());
+        assertEquals(SIZE, bitmap.getWidth());
+        assertEquals(SIZE, bitmap.getHeight());
+        BitmapPool.getInstance().put(bitmap);
+    }
+
+    /*
+     * Photo with some detail, so it's not compressed to almost nothing
+     */
+    private static Bitmap createPhoto(int width, int height) {
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.DKGRAY);
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        for (int i = 0; i < 64; i++) {
+            paint.setColor(Color.rgb(i * 4, 255 - i * 4, i * 2));
+            canvas.drawCircle(width * (i % 8) / 8f, height * (i / 8) / 8f, width / 10f, paint);
+        }
+        return bitmap;
+    }
+
+    private static byte[] compress(Bitmap bitmap) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        return out.toByteArray();
+    }
+
+    private static File write(File file, byte[] data) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /*
+     * Insert APP1 segment after SOI of the JPEG, with big endian TIFF header, IFD0 holding
+     * orientation and IFD1 pointing to the thumbnail, which directly follows IFD1
+     */
+    private static byte[] addExifThumbnail(byte[] jpeg, byte[] thumbnail) {
+        final int ifd1Offset = 8 + 2 + 12 + 4;
+        final int thumbnailOffset = ifd1Offset + 2 + 2 * 12 + 4;
+        final ByteBuffer tiff = ByteBuffer.allocate(thumbnailOffset + thumbnail.length);
+        tiff.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        tiff.putShort((short) 1);
+        // Orientation, short value is left aligned in the value field
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 1)
+                .putShort((short) 0);
+        tiff.putInt(ifd1Offset);
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(thumbnailOffset);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        tiff.putInt(0);
+        tiff.put(thumbnail);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length + tiff.capacity());
+        out.write(0xFF);
+        out.write(0xD8);
+        out.write(0xFF);
+        out.write(0xE1);
+        final int segmentLength = 2 + 6 + tiff.capacity();
+        out.write(segmentLength >> 8);
+        out.write(segmentLength);
+        out.write(new byte[] {'E', 'x', 'i', 'f', 0, 0}, 0, 6);
+        out.write(tiff.array(), 0, tiff.capacity());
+        // Rest of the JPEG, after its own SOI
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+}
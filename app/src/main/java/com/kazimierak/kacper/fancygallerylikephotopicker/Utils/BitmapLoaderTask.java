@@ -3,8 +3,9 @@ package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.widget.ImageView;
 import java.lang.ref.WeakReference;
 
@@ -37,60 +38,107 @@ import java.lang.ref.WeakReference;
  * Task that decodes bitmap from given file path, resize it to match CardView's size in order to
  * keep memory usage at low level.
  *
- * Decoding and resizing is done off the main UI thread and bound to ImageView using WeakReference
- * so when ImageView is recycled in RecyclerView (e.g. when view is scrolled off the screen) loading
- * is stopped.
+ * Concurrent requests of the same photo and size share single DecodeJob, so the photo is read and
+ * decoded only once.
+ *
+ * Decoding and resizing is done off the main UI thread, in parallel on DecodeExecutor, and bound
+ * to ImageView using WeakReference so when ImageView is recycled in RecyclerView (e.g. when view
+ * is scrolled off the screen) loading is stopped.
+ *
+ * Bitmaps shown by ImageViews are retained in BitmapPool, and released when ImageView shows
+ * something else or is recycled, so unused thumbnails can be reused by next decodes.
+ *
+ * Task bound to its ImageView can be reused for every photo shown by it, e.g. one task per
+ * RecyclerView item holder. Reused task keeps its AsyncDrawable, so loading a photo that is
+ * already in memory cache, or showing placeholder, allocates nothing.
  */
 
-public class BitmapLoaderTask extends AsyncTask<String, Void, Bitmap> {
+public class BitmapLoaderTask {
 
     /*
      * Reference to ImageView that will show loaded bitmap, weak reference does not prevent object
      * to be recycled by garbage collector, e.g. when ItemHolder in recycler view is off the screen.
      */
     private final WeakReference<ImageView> imageViewReference;
+    private final Context context;
     private int size;
     private String path = "";
+    private DecodeJob job;
+
+    /*
+     * Set from decoding threads when the job was dropped from the queue
+     */
+    private volatile boolean cancelled;
+
+    /*
+     * Drawable showing placeholder while this task is loading, reused by next loads
+     */
+    private AsyncDrawable asyncDrawable;
+
+    /*
+     * Drawable showing preview color, reused by next previews
+     */
+    private ColorDrawable previewDrawable;
 
     public BitmapLoaderTask(ImageView imageView, int size) {
         imageViewReference = new WeakReference<>(imageView);
+        context = imageView.getContext().getApplicationContext();
         this.size = size;
     }
 
     public void setSize(int size) { this.size = size; }
 
     /*
-     * Task done off the main ui thread
+     * Attach this task to decode of given photo
      */
-    @Override
-    protected Bitmap doInBackground(String... params) {
-        path = params[0];
-        PhotoLoader loader = new PhotoLoader();
-        return loader.decodePhoto(path, size, size);
+    private void execute(String photoPath, int position) {
+        path = photoPath;
+        job = DecodeJob.attach(context, this, photoPath, size, position);
     }
 
-    @Override
-    protected void onPostExecute(Bitmap bitmap)  {
-        if (isCancelled()) {
-            bitmap = null;
+    /**
+     * Cancel this task, decode is aborted if no other task waits for the same photo
+     */
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            if (job != null) job.detach(this);
         }
+    }
+
+    public boolean isCancelled() { return cancelled; }
+
+    /*
+     * Called when DecodeJob was dropped from the queue, holding its lock. Reused task is detached
+     * from previous job under the same lock, so only the current job can cancel it.
+     */
+    void markCancelled() {
+        cancelled = true;
+    }
+
+    /*
+     * Called on the main UI thread by DecodeJob when photo is decoded
+     */
+    void onDecoded(Bitmap bitmap)  {
+        if (cancelled || bitmap == null) return;
 
         /*
          * Check if weak reference still exist and container was not recycled
          */
-        if (imageViewReference != null && bitmap != null) {
-            final ImageView imageView = imageViewReference.get();
-            final BitmapLoaderTask bitmapLoaderTask = getBitmapLoaderTask(imageView);
+        final ImageView imageView = imageViewReference.get();
+        final BitmapLoaderTask bitmapLoaderTask = getBitmapLoaderTask(imageView);
 
-            if (this == bitmapLoaderTask && imageView != null) {
-                imageView.setImageBitmap(bitmap);
-            }
+        if (this == bitmapLoaderTask && imageView != null) {
+            BitmapPool.getInstance().retain(bitmap);
+            imageView.setImageBitmap(bitmap);
+            LoadTimings.markThumbnailShown();
         }
     }
 
     /**
      * Loads bitmap off the main UI thread, using weak reference to photo container, so when
-     * container is recycled loading is stopped.
+     * container is recycled loading is stopped. If thumbnail is already in memory cache it is
+     * set synchronously and no task is started.
      *
      * @param context Activity context
      * @param photoPath Path to the photo
@@ -98,14 +146,126 @@ public class BitmapLoaderTask extends AsyncTask<String, Void, Bitmap> {
      * @param placeholderBitmap Placeholder image to show when actual photo is loading
      */
     public void loadBitmap (Context context, String photoPath, ImageView imageView, Bitmap placeholderBitmap) {
+        loadBitmap(context, photoPath, imageView, placeholderBitmap, DecodeExecutor.NO_POSITION);
+    }
+
+    /**
+     * Loads bitmap off the main UI thread for item at given adapter position. Loading is
+     * prioritized over items that are not visible anymore.
+     *
+     * @param context Activity context
+     * @param photoPath Path to the photo
+     * @param imageView Photo container
+     * @param placeholderBitmap Placeholder image to show when actual photo is loading
+     * @param position Adapter position of the item shown by container
+     */
+    public void loadBitmap (Context context, String photoPath, ImageView imageView,
+                            Bitmap placeholderBitmap, int position) {
+        final BitmapLoaderTask task = imageView == imageViewReference.get()
+                ? this : new BitmapLoaderTask(imageView, size);
+        task.load(photoPath, placeholderBitmap, position);
+    }
+
+    /**
+     * Loads bitmap into ImageView this task is bound to, reusing this task. Loading of previous
+     * photo is cancelled. If thumbnail is already in memory cache it is set synchronously, and
+     * path is not converted to String.
+     *
+     * @param path Path to the photo, e.g. builder reused by grid cell
+     * @param placeholderBitmap Placeholder image to show when actual photo is loading
+     * @param position Adapter position of the item shown by container
+     */
+    public void load (CharSequence path, Bitmap placeholderBitmap, int position) {
+        final ImageView imageView = imageViewReference.get();
+        if (imageView == null || loadFromCache(path)) return;
+
+        final String photoPath = path.toString();
         if (cancelPotentialWork(photoPath, imageView)) {
-            final BitmapLoaderTask task = new BitmapLoaderTask(imageView, size);
-            final AsyncDrawable asyncDrawable =
-                    new AsyncDrawable(context.getResources(), placeholderBitmap, task);
+            releaseBitmap(imageView);
+            imageView.setImageDrawable(getAsyncDrawable(placeholderBitmap));
+            // Detach from previous job even if container does not show this task anymore
+            cancel();
+            cancelled = false;
+            execute(photoPath, position);
+        }
+    }
 
-            imageView.setImageDrawable(asyncDrawable);
-            task.execute(photoPath);
+    /**
+     * Show thumbnail in ImageView this task is bound to, only if it's in memory cache
+     *
+     * @param photoPath Path to the photo
+     * @return true if thumbnail was cached and is shown now
+     */
+    public boolean loadFromCache (CharSequence photoPath) {
+        final ImageView imageView = imageViewReference.get();
+        if (imageView == null) return false;
+
+        final Bitmap cachedBitmap = BitmapMemoryCache.getInstance().acquire(photoPath, size);
+        if (cachedBitmap == null) return false;
+
+        cancelWork(imageView);
+        cancel();
+        final Drawable drawable = imageView.getDrawable();
+        if (drawable instanceof BitmapDrawable && !(drawable instanceof AsyncDrawable)
+                && ((BitmapDrawable) drawable).getBitmap() == cachedBitmap) {
+            // Already shown, e.g. item is bound again after its selection changed
+            BitmapPool.getInstance().release(cachedBitmap);
+            return true;
         }
+        releaseBitmap(imageView);
+        // ImageView reuses its own BitmapDrawable on Lollipop and newer
+        imageView.setImageBitmap(cachedBitmap);
+        LoadTimings.markThumbnailShown();
+        return true;
+    }
+
+    /**
+     * Cancel loading and show plain color in ImageView this task is bound to, e.g. preview of the
+     * photo while the grid is flung
+     *
+     * @param color Color to show
+     */
+    public void showPreview (int color) {
+        final ImageView imageView = imageViewReference.get();
+        if (imageView == null) return;
+
+        cancelWork(imageView);
+        releaseBitmap(imageView);
+        cancel();
+        path = "";
+        if (previewDrawable == null) {
+            previewDrawable = new ColorDrawable(color);
+        } else {
+            previewDrawable.setColor(color);
+        }
+        imageView.setImageDrawable(previewDrawable);
+    }
+
+    /**
+     * Cancel loading and show placeholder in ImageView this task is bound to, e.g. while path of
+     * the photo is not known yet
+     *
+     * @param placeholderBitmap Placeholder image
+     */
+    public void showPlaceholder (Bitmap placeholderBitmap) {
+        final ImageView imageView = imageViewReference.get();
+        if (imageView == null) return;
+
+        cancelWork(imageView);
+        releaseBitmap(imageView);
+        cancel();
+        path = "";
+        imageView.setImageDrawable(getAsyncDrawable(placeholderBitmap));
+    }
+
+    /*
+     * Drawable bound to this task showing given placeholder, created only when placeholder changed
+     */
+    private AsyncDrawable getAsyncDrawable(Bitmap placeholderBitmap) {
+        if (asyncDrawable == null || asyncDrawable.getBitmap() != placeholderBitmap) {
+            asyncDrawable = new AsyncDrawable(context.getResources(), placeholderBitmap, this);
+        }
+        return asyncDrawable;
     }
 
     /**
@@ -121,10 +281,10 @@ public class BitmapLoaderTask extends AsyncTask<String, Void, Bitmap> {
         if (bitmapLoaderTask != null) {
             final String bitmapPath = bitmapLoaderTask.path;
 
-            // If bitmapPath is not yet set or it differs from the new data
-            if ( bitmapPath.isEmpty() || !bitmapPath.equals(data)) {
+            // If bitmapPath is not yet set, it differs from the new data or task was dropped
+            if ( bitmapPath.isEmpty() || !bitmapPath.equals(data) || bitmapLoaderTask.isCancelled()) {
                 // Cancel previous task
-                bitmapLoaderTask.cancel(true);
+                bitmapLoaderTask.cancel();
             } else {
                 // The same work is already in progress
                 return false;
@@ -134,6 +294,30 @@ public class BitmapLoaderTask extends AsyncTask<String, Void, Bitmap> {
         return true;
     }
 
+    /**
+     * Cancel loading operation bound to given container, if any
+     * @param imageView reference to ImageView that is meant to show bitmap
+     */
+    public static void cancelWork (ImageView imageView) {
+        final BitmapLoaderTask bitmapLoaderTask = getBitmapLoaderTask(imageView);
+        if (bitmapLoaderTask != null) {
+            bitmapLoaderTask.cancel();
+        }
+    }
+
+    /**
+     * Release bitmap shown by given container, so it can be reused when no longer needed.
+     * Container must show another drawable afterwards.
+     *
+     * @param imageView reference to ImageView that shows bitmap
+     */
+    public static void releaseBitmap (ImageView imageView) {
+        final Drawable drawable = imageView.getDrawable();
+        if (drawable instanceof BitmapDrawable && !(drawable instanceof AsyncDrawable)) {
+            BitmapPool.getInstance().release(((BitmapDrawable) drawable).getBitmap());
+        }
+    }
+
     /*
      * Get getBitmapLoaderTask from AsyncDrawable to check if is not duplicated
      */
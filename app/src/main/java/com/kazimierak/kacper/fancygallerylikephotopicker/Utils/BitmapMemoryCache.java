@@ -0,0 +1,291 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * In-memory LRU cache of decoded thumbnails. Keeps recently shown bitmaps so cells scrolled back
+ * into view can be filled synchronously, without starting BitmapLoaderTask and decoding the photo
+ * from disk again.
+ *
+ * Cache is bounded by the byte size of stored bitmaps, maximal size is a fraction of the process
+ * heap. Entries are keyed by photo path and the requested thumbnail size. Lookups reuse single
+ * key object and accept path in any CharSequence, e.g. builder reused by grid cell, so checking
+ * the cache while binding grid cells allocates nothing.
+ *
+ * Prefetched thumbnails are tracked until they are shown for the first time or evicted, to
+ * measure how many of them were actually used.
+ *
+ * Cache retains every stored bitmap in BitmapPool and releases it when entry is evicted, so
+ * bitmaps that are neither cached nor shown can be reused by next decodes. Lookups and inserts
+ * are synchronized, so bitmap returned by acquire cannot be pooled before caller retains it.
+ */
+
+public class BitmapMemoryCache {
+
+    private final static String DEBUG_TAG = "BitmapMemoryCache";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Part of the process heap that can be used by cached bitmaps (1/8 of max heap by default)
+     */
+    private static final int HEAP_FRACTION = 8;
+
+    private static BitmapMemoryCache instance;
+
+    private final LruCache<Key, Bitmap> cache;
+
+    /*
+     * Key reused by lookups, guarded by this
+     */
+    private final Key lookupKey = new Key(null, 0);
+
+    /*
+     * Lookup statistics, updated from UI thread as well as from loading threads
+     */
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /*
+     * Keys of prefetched thumbnails that were not shown yet, and prefetch statistics, guarded by
+     * this
+     */
+    private final Set<Key> prefetchedKeys = new HashSet<>();
+    private int prefetchUsedCount;
+    private int prefetchUnusedCount;
+
+    /**
+     * Creates cache that holds bitmaps up to given size
+     *
+     * @param maxBytes Maximal summary byte count of cached bitmaps
+     */
+    public BitmapMemoryCache(int maxBytes) {
+        cache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Bitmap oldValue, Bitmap newValue) {
+                BitmapPool.getInstance().release(oldValue);
+                // Called from synchronized methods of the cache only
+                if (prefetchedKeys.remove(key) && evicted) prefetchUnusedCount++;
+            }
+        };
+    }
+
+    /**
+     * Get cache shared by whole application, sized as HEAP_FRACTION of the process heap
+     *
+     * @return Shared memory cache instance
+     */
+    public static synchronized BitmapMemoryCache getInstance() {
+        if (instance == null) {
+            final int maxBytes = (int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+            if (LOCAL_LOG) Log.d(DEBUG_TAG, "Memory cache size: " + maxBytes + " bytes");
+            instance = new BitmapMemoryCache(maxBytes);
+        }
+        return instance;
+    }
+
+    /**
+     * Creates key identifying thumbnail of given size, e.g. for pending decodes
+     *
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @return Key of the thumbnail
+     */
+    public static String createKey(String path, int size) {
+        return path + '#' + size;
+    }
+
+    /**
+     * Get thumbnail of the photo from cache
+     *
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @return Cached bitmap, or null if there is no thumbnail of given size in cache
+     */
+    public synchronized Bitmap get(CharSequence path, int size) {
+        if (path == null) return null;
+        final Bitmap bitmap = cache.get(lookupKey.set(path, size));
+        if (bitmap != null) {
+            hitCount.incrementAndGet();
+            if (!prefetchedKeys.isEmpty() && prefetchedKeys.remove(lookupKey)) {
+                prefetchUsedCount++;
+            }
+        } else {
+            missCount.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Get thumbnail of the photo from cache and retain it in BitmapPool, caller must release
+     * bitmap when it's no longer shown
+     *
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @return Cached and retained bitmap, or null if there is no thumbnail of given size in cache
+     */
+    public synchronized Bitmap acquire(CharSequence path, int size) {
+        final Bitmap bitmap = get(path, size);
+        BitmapPool.getInstance().retain(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Put decoded thumbnail into cache, least recently used entries are evicted when cache is full
+     *
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @param bitmap Decoded thumbnail
+     */
+    public synchronized void put(String path, int size, Bitmap bitmap) {
+        put(path, size, bitmap, false);
+    }
+
+    /**
+     * Put decoded thumbnail into cache, least recently used entries are evicted when cache is full
+     *
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @param bitmap Decoded thumbnail
+     * @param prefetched true if thumbnail was decoded before anybody requested it
+     */
+    public synchronized void put(String path, int size, Bitmap bitmap, boolean prefetched) {
+        if (path != null && bitmap != null) {
+            BitmapPool.getInstance().retain(bitmap);
+            final Key key = new Key(path, size);
+            cache.put(key, bitmap);
+            if (prefetched) prefetchedKeys.add(key);
+        }
+    }
+
+    /**
+     * Check if thumbnail of the photo is cached, without updating statistics
+     *
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @return true if there is thumbnail of given size in cache
+     */
+    public synchronized boolean contains(CharSequence path, int size) {
+        return path != null && cache.get(lookupKey.set(path, size)) != null;
+    }
+
+    /**
+     * Remove thumbnail of the photo from cache, e.g. when photo was deleted
+     *
+     * @param path Path to the photo
+     * @param size Size of thumbnail
+     */
+    public synchronized void remove(CharSequence path, int size) {
+        cache.remove(lookupKey.set(path, size));
+    }
+
+    /**
+     * Remove all entries from cache
+     */
+    public synchronized void clear() {
+        cache.evictAll();
+    }
+
+    public int getHitCount() { return hitCount.get(); }
+
+    public int getMissCount() { return missCount.get(); }
+
+    /**
+     * @return Number of prefetched thumbnails that were shown
+     */
+    public synchronized int getPrefetchUsedCount() { return prefetchUsedCount; }
+
+    /**
+     * @return Number of prefetched thumbnails evicted before they were shown
+     */
+    public synchronized int getPrefetchUnusedCount() { return prefetchUnusedCount; }
+
+    /**
+     * @return Summary byte count of cached bitmaps
+     */
+    public int getSize() { return cache.size(); }
+
+    public int getMaxSize() { return cache.maxSize(); }
+
+    /*
+     * Cache key, photo path with the requested thumbnail size. Only lookup key is modified, keys
+     * of stored entries never change and always hold String. Hash code equals the one of key
+     * holding String with the same characters.
+     */
+    private static final class Key {
+        private CharSequence path;
+        private int size;
+
+        Key(CharSequence path, int size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        Key set(CharSequence path, int size) {
+            this.path = path;
+            this.size = size;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key key = (Key) o;
+            if (size != key.size || path.length() != key.path.length()) return false;
+            for (int i = path.length() - 1; i >= 0; i--) {
+                // Paths of one gallery differ at the end
+                if (path.charAt(i) != key.path.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            // String caches its hash, builder is hashed the same way String is
+            int hash = 0;
+            if (path instanceof String) {
+                hash = path.hashCode();
+            } else {
+                for (int i = 0; i < path.length(); i++) {
+                    hash = 31 * hash + path.charAt(i);
+                }
+            }
+            return 31 * hash + size;
+        }
+    }
+}
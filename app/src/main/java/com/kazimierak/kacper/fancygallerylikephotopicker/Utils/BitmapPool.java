@@ -0,0 +1,292 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Pool of bitmaps that are no longer used, so their memory can be reused by next decodes through
+ * BitmapFactory.Options.inBitmap instead of allocating new bitmap for every thumbnail.
+ *
+ * Bitmap can be shown by several ImageViews and held by BitmapMemoryCache at the same time, so
+ * every holder retains it and releases it when bitmap is no longer used. Bitmap goes back into the
+ * pool only when last holder released it. Bitmaps that were never retained are not pooled.
+ *
+ * Pooled bitmaps are bucketed by config and allocation size. Reusing bitmap of different
+ * dimensions is supported since KitKat, on older APIs pool only tracks allocations.
+ */
+
+public class BitmapPool {
+
+    private final static String DEBUG_TAG = "BitmapPool";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Part of the process heap that can be held by pooled bitmaps (1/16 of max heap by default)
+     */
+    private static final int HEAP_FRACTION = 16;
+
+    /**
+     * Pooled bitmap is not used if it's larger than requested size multiplied by this factor, so
+     * small thumbnails do not occupy memory of large ones
+     */
+    private static final int MAX_SIZE_MULTIPLIER = 4;
+
+    /**
+     * Statistics are logged every time this number of decodes is recorded
+     */
+    private static final int LOG_INTERVAL = 100;
+
+    private static BitmapPool instance;
+
+    private final int maxBytes;
+    private int pooledBytes;
+
+    /*
+     * Config -> allocation byte count -> pooled bitmaps
+     */
+    private final Map<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>> buckets = new HashMap<>();
+
+    /*
+     * Number of holders of every retained bitmap
+     */
+    private final IdentityHashMap<Bitmap, Integer> references = new IdentityHashMap<>();
+
+    /*
+     * Statistics
+     */
+    private int allocationCount;
+    private int reuseCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+
+    /**
+     * @param maxBytes Maximal summary allocation byte count of pooled bitmaps
+     */
+    public BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get pool shared by whole application, sized as HEAP_FRACTION of the process heap
+     *
+     * @return Shared bitmap pool instance
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null) {
+            instance = new BitmapPool((int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION));
+        }
+        return instance;
+    }
+
+    /**
+     * @return true if decoded bitmap can reuse memory of bitmap with different dimensions
+     */
+    public static boolean isReuseSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * Take bitmap that can hold image of given dimensions from the pool
+     *
+     * @param width Width of decoded image
+     * @param height Height of decoded image
+     * @param config Config of decoded image, ARGB_8888 if null
+     * @return Pooled bitmap to be used as BitmapFactory.Options.inBitmap, or null if there is no
+     * suitable bitmap in the pool
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (!isReuseSupported() || width <= 0 || height <= 0) return null;
+        if (config == null) config = Bitmap.Config.ARGB_8888;
+
+        final int requiredBytes = width * height * getBytesPerPixel(config);
+        final TreeMap<Integer, ArrayDeque<Bitmap>> bucket = buckets.get(config);
+        if (bucket != null) {
+            final Map.Entry<Integer, ArrayDeque<Bitmap>> entry = bucket.ceilingEntry(requiredBytes);
+            if (entry != null && entry.getKey() <= requiredBytes * MAX_SIZE_MULTIPLIER) {
+                final Bitmap bitmap = entry.getValue().poll();
+                if (entry.getValue().isEmpty()) bucket.remove(entry.getKey());
+                pooledBytes -= entry.getKey();
+                return bitmap;
+            }
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Put bitmap that is no longer used into the pool. Bitmap is dropped if the pool is full or
+     * bitmap cannot be reused.
+     *
+     * @param bitmap Bitmap that is not shown nor cached anymore
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized void put(Bitmap bitmap) {
+        // Bitmaps are pooled on KitKat and newer only
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) return;
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || references.containsKey(bitmap)) {
+            return;
+        }
+        final int bytes = bitmap.getAllocationByteCount();
+        if (bytes > maxBytes) return;
+
+        final Bitmap.Config config = bitmap.getConfig() != null
+                ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        TreeMap<Integer, ArrayDeque<Bitmap>> bucket = buckets.get(config);
+        if (bucket == null) {
+            bucket = new TreeMap<>();
+            buckets.put(config, bucket);
+        }
+        ArrayDeque<Bitmap> bitmaps = bucket.get(bytes);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            bucket.put(bytes, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        pooledBytes += bytes;
+        putCount++;
+        trimToSize();
+    }
+
+    /**
+     * Mark bitmap as used by another holder (ImageView or cache)
+     *
+     * @param bitmap Used bitmap
+     */
+    public synchronized void retain(Bitmap bitmap) {
+        if (bitmap == null) return;
+        final Integer count = references.get(bitmap);
+        references.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Mark bitmap as no longer used by one of its holders, bitmap goes back to the pool when it
+     * was released by all holders
+     *
+     * @param bitmap Released bitmap
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null) return;
+        final Integer count = references.get(bitmap);
+        if (count == null) return;
+
+        if (count > 1) {
+            references.put(bitmap, count - 1);
+        } else {
+            references.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    /**
+     * Record result of decode, used to track allocation rate
+     *
+     * @param reused true if decode reused pooled bitmap, false if new bitmap was allocated
+     */
+    public synchronized void recordDecode(boolean reused) {
+        if (reused) reuseCount++;
+        else allocationCount++;
+
+        if (LOCAL_LOG && (reuseCount + allocationCount) % LOG_INTERVAL == 0) {
+            Log.d(DEBUG_TAG, getStatistics());
+        }
+    }
+
+    /**
+     * Remove all bitmaps from the pool
+     */
+    public synchronized void clear() {
+        buckets.clear();
+        pooledBytes = 0;
+    }
+
+    public synchronized int getAllocationCount() { return allocationCount; }
+
+    public synchronized int getReuseCount() { return reuseCount; }
+
+    public synchronized int getMissCount() { return missCount; }
+
+    public synchronized int getEvictionCount() { return evictionCount; }
+
+    /**
+     * @return Summary allocation byte count of pooled bitmaps
+     */
+    public synchronized int getSize() { return pooledBytes; }
+
+    /**
+     * @return Human readable allocation and reuse statistics
+     */
+    public synchronized String getStatistics() {
+        return "allocations: " + allocationCount + ", reuses: " + reuseCount
+                + ", misses: " + missCount + ", puts: " + putCount
+                + ", evictions: " + evictionCount + ", pooled bytes: " + pooledBytes
+                + ", retained bitmaps: " + references.size();
+    }
+
+    /*
+     * Drop largest bitmaps until pool fits in byte budget
+     */
+    private void trimToSize() {
+        while (pooledBytes > maxBytes) {
+            TreeMap<Integer, ArrayDeque<Bitmap>> largestBucket = null;
+            for (TreeMap<Integer, ArrayDeque<Bitmap>> bucket : buckets.values()) {
+                if (!bucket.isEmpty() && (largestBucket == null
+                        || bucket.lastKey() > largestBucket.lastKey())) {
+                    largestBucket = bucket;
+                }
+            }
+            if (largestBucket == null) return;
+
+            final Map.Entry<Integer, ArrayDeque<Bitmap>> entry = largestBucket.lastEntry();
+            entry.getValue().pollLast();
+            if (entry.getValue().isEmpty()) largestBucket.remove(entry.getKey());
+            pooledBytes -= entry.getKey();
+            evictionCount++;
+        }
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.os.Process;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Executor running photo decoding tasks in parallel. AsyncTask.execute runs every task on single
+ * serial executor, so thumbnails would be decoded one by one regardless of number of cores.
+ *
+ * Pool size matches number of available cores, threads run with background priority so decoding
+ * does not steal time from UI thread.
+ *
+ * Waiting tasks are ordered by priority: tasks for adapter positions inside visible range go
+ * first, and among them most recently requested ones, so cells that just appeared on the screen
+ * are not waiting behind cells that were flung away. When visible range changes, waiting tasks
+ * for positions that left it are cancelled. Queue is bounded, when it's full the task with the
+ * lowest priority is cancelled.
+ *
+ * Tasks for positions inside prefetch range are kept too, but they wait behind visible ones.
+ *
+ * Only decodes run here. Scans, index and cache writes run on AsyncTask.THREAD_POOL_EXECUTOR,
+ * so long I/O never holds the few decoding threads.
+ */
+
+public class DecodeExecutor extends ThreadPoolExecutor {
+
+    private final static String DEBUG_TAG = "DecodeExecutor";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Position of tasks not related to any adapter item, such tasks are not dropped when visible
+     * range changes, but they count towards the queue bound like any other task
+     */
+    public static final int NO_POSITION = -1;
+
+    /**
+     * Maximal number of tasks waiting for free thread
+     */
+    private static final int QUEUE_CAPACITY = 128;
+
+    /**
+     * Idle threads are stopped after this time
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static DecodeExecutor instance;
+
+    private final int queueCapacity;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger cancelledCount = new AtomicInteger();
+
+    /*
+     * Visible range of adapter positions, guarded by this
+     */
+    private int firstVisible = 0;
+    private int lastVisible = Integer.MAX_VALUE;
+
+    /*
+     * Range of adapter positions being prefetched, empty by default, guarded by this
+     */
+    private int firstPrefetched = 0;
+    private int lastPrefetched = -1;
+
+    /**
+     * @param poolSize Number of decoding threads
+     * @param queueCapacity Maximal number of waiting tasks
+     */
+    public DecodeExecutor(int poolSize, int queueCapacity) {
+        super(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(queueCapacity), new DecodeThreadFactory());
+        this.queueCapacity = queueCapacity;
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get executor shared by whole application, with one thread per available core
+     *
+     * @return Shared decode executor instance
+     */
+    public static synchronized DecodeExecutor getInstance() {
+        if (instance == null) {
+            // At least two threads, so long running task does not block all decodes
+            final int poolSize = Math.max(2, Runtime.getRuntime().availableProcessors());
+            if (LOCAL_LOG) Log.d(DEBUG_TAG, "Decode threads: " + poolSize);
+            instance = new DecodeExecutor(poolSize, QUEUE_CAPACITY);
+        }
+        return instance;
+    }
+
+    /**
+     * Execute task not related to any adapter position
+     */
+    @Override
+    public void execute(Runnable command) {
+        execute(command, NO_POSITION);
+    }
+
+    /**
+     * Execute task decoding photo for given adapter position
+     *
+     * @param command Task to execute, PositionedTask or any Future (e.g. AsyncTask's FutureTask)
+     *                is cancelled when dropped from the queue
+     * @param position Adapter position of the item, or NO_POSITION
+     */
+    public void execute(Runnable command, int position) {
+        final QueuedTask task = command instanceof QueuedTask
+                ? (QueuedTask) command
+                : new QueuedTask(command, position, sequence.incrementAndGet());
+        synchronized (this) {
+            task.visible = isVisible(task.getPosition());
+            if (getQueue().size() >= queueCapacity) {
+                dropLowestPriorityTask();
+            }
+        }
+        super.execute(task);
+    }
+
+    /**
+     * Re-evaluate priority of the waiting task after its position changed. PriorityBlockingQueue
+     * orders tasks only when they are inserted, so the task is taken out and queued again, as
+     * the most recently requested one. Nothing is done if the task is not waiting anymore.
+     *
+     * @param command Task passed to execute earlier
+     */
+    public synchronized void reprioritize(PositionedTask command) {
+        for (Runnable runnable : getQueue()) {
+            final QueuedTask task = (QueuedTask) runnable;
+            if (task.command != command) continue;
+            if (getQueue().remove(task)) {
+                final int position = task.getPosition();
+                if (isVisible(position) || isPrefetched(position)) {
+                    task.visible = isVisible(position);
+                    task.sequence = sequence.incrementAndGet();
+                    getQueue().offer(task);
+                } else {
+                    cancel(task);
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Update range of visible adapter positions. Waiting tasks for positions outside the range
+     * are cancelled, remaining ones are reordered.
+     *
+     * @param first First visible position
+     * @param last Last visible position
+     */
+    public synchronized void setVisibleRange(int first, int last) {
+        if (first == firstVisible && last == lastVisible) return;
+        firstVisible = first;
+        lastVisible = last;
+        reorderQueue();
+    }
+
+    /**
+     * Update range of adapter positions being prefetched. Waiting tasks for positions outside
+     * both visible and prefetch range are cancelled.
+     *
+     * @param first First prefetched position
+     * @param last Last prefetched position, lower than first stops prefetching
+     */
+    public synchronized void setPrefetchRange(int first, int last) {
+        if (first == firstPrefetched && last == lastPrefetched) return;
+        firstPrefetched = first;
+        lastPrefetched = last;
+        reorderQueue();
+    }
+
+    /*
+     * Cancel waiting tasks that are not needed anymore and reorder remaining ones, must be called
+     * holding lock of this
+     */
+    private void reorderQueue() {
+        final List<Runnable> waiting = new ArrayList<>(getQueue().size());
+        getQueue().drainTo(waiting);
+        for (Runnable runnable : waiting) {
+            final QueuedTask task = (QueuedTask) runnable;
+            final int position = task.getPosition();
+            if (isVisible(position) || isPrefetched(position)) {
+                task.visible = isVisible(position);
+                getQueue().offer(task);
+            } else {
+                cancel(task);
+            }
+        }
+    }
+
+    /**
+     * @return Number of tasks waiting for free thread
+     */
+    public int getQueueDepth() { return getQueue().size(); }
+
+    /**
+     * @return Number of waiting tasks cancelled because they left visible range or queue was full
+     */
+    public int getCancelledCount() { return cancelledCount.get(); }
+
+    private boolean isVisible(int position) {
+        return position == NO_POSITION || (position >= firstVisible && position <= lastVisible);
+    }
+
+    private boolean isPrefetched(int position) {
+        return position >= firstPrefetched && position <= lastPrefetched;
+    }
+
+    /*
+     * Remove task with lowest priority to make room for the new one
+     */
+    private void dropLowestPriorityTask() {
+        QueuedTask lowest = null;
+        for (Runnable runnable : getQueue()) {
+            final QueuedTask task = (QueuedTask) runnable;
+            if (lowest == null || task.compareTo(lowest) > 0) {
+                lowest = task;
+            }
+        }
+        if (lowest != null && getQueue().remove(lowest)) {
+            cancel(lowest);
+        }
+    }
+
+    /*
+     * AsyncTask passes FutureTask to executor, cancelling it makes AsyncTask call onCancelled, so
+     * its result is never expected.
+     */
+    private void cancel(QueuedTask task) {
+        if (task.command instanceof PositionedTask) {
+            ((PositionedTask) task.command).cancel();
+        } else if (task.command instanceof Future) {
+            ((Future<?>) task.command).cancel(false);
+        }
+        cancelledCount.incrementAndGet();
+    }
+
+    /**
+     * Task that knows adapter position it's working for. Position may change while the task is
+     * waiting, e.g. when another item requests the same photo.
+     */
+    public interface PositionedTask extends Runnable {
+
+        /**
+         * @return Adapter position of the item, or NO_POSITION
+         */
+        int getPosition();
+
+        /**
+         * Called when task was dropped from the queue and will not be run
+         */
+        void cancel();
+    }
+
+    /*
+     * Task with its priority
+     */
+    private static class QueuedTask implements Runnable, Comparable<QueuedTask> {
+
+        private final Runnable command;
+        private final int position;
+        private long sequence;
+        private boolean visible;
+
+        QueuedTask(Runnable command, int position, long sequence) {
+            this.command = command;
+            this.position = position;
+            this.sequence = sequence;
+        }
+
+        int getPosition() {
+            return command instanceof PositionedTask
+                    ? ((PositionedTask) command).getPosition() : position;
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+
+        /*
+         * Visible tasks first, then most recently requested ones
+         */
+        @Override
+        public int compareTo(QueuedTask another) {
+            if (visible != another.visible) {
+                return visible ? -1 : 1;
+            }
+            return sequence > another.sequence ? -1 : (sequence < another.sequence ? 1 : 0);
+        }
+    }
+
+    /*
+     * Creates decoding threads with background priority
+     */
+    private static class DecodeThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "Decode #" + threadCount.incrementAndGet());
+        }
+    }
+}
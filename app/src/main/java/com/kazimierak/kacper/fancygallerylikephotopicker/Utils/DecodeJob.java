@@ -0,0 +1,389 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Decoding of single photo at given size, shared by all BitmapLoaderTasks requesting the same
+ * photo at the same time. Later requests attach to the pending job instead of starting another
+ * decode, and all of them receive decoded bitmap.
+ *
+ * Job counts attached tasks, cancelling a task only detaches it. Decode is aborted when the last
+ * attached task was cancelled, or when DecodeExecutor dropped the job from its queue. Job keeps
+ * BitmapFactory.Options used by running decode, so aborting stops the decoder itself instead of
+ * letting it decode whole photo that nobody waits for.
+ *
+ * Job reads thumbnail from disk cache, decodes photo only when there is no valid thumbnail stored,
+ * and puts the result into memory cache. Result is delivered on the main UI thread, decoded photo
+ * is compressed into disk cache only after it was handed over for delivery. Bitmaps larger
+ * than thumbnails, e.g. full screen previews, are decoded to fit requested size and not cached.
+ *
+ * Prefetch job is started with no attached task, it only warms the caches. Task requesting the
+ * same photo later attaches to it like to any other pending job.
+ */
+
+public class DecodeJob implements DecodeExecutor.PositionedTask {
+
+    private final static String DEBUG_TAG = "DecodeJob";
+    private static final boolean LOCAL_LOG = false;
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    /*
+     * Pending jobs by key, guarded by itself. Attached tasks of every job are guarded by the same
+     * lock.
+     */
+    private static final HashMap<String, DecodeJob> IN_FLIGHT = new HashMap<>();
+
+    private static int coalescedCount;
+
+    /*
+     * Time spent on decodes that were aborted, guarded by IN_FLIGHT
+     */
+    private static long wastedDecodeMillis;
+
+    /*
+     * Prefetch statistics, guarded by IN_FLIGHT
+     */
+    private static int prefetchStartedCount;
+    private static int prefetchJoinedCount;
+    private static int prefetchCancelledCount;
+
+    private final Context context;
+    private final String key;
+    private final String path;
+    private final int size;
+    private final List<BitmapLoaderTask> waiters = new ArrayList<>(1);
+    private volatile int position;
+    private volatile boolean cancelled;
+
+    /*
+     * Job was started by prefetch and no task attached to it yet, guarded by IN_FLIGHT
+     */
+    private boolean prefetched;
+
+    /*
+     * Options of decode in progress, guarded by IN_FLIGHT
+     */
+    private BitmapFactory.Options options;
+
+    private DecodeJob(Context context, String key, String path, int size, int position) {
+        this.context = context;
+        this.key = key;
+        this.path = path;
+        this.size = size;
+        this.position = position;
+    }
+
+    /**
+     * Attach task to pending decode of the same photo and size, or start new decode if there is
+     * none.
+     *
+     * @param context Any context, application context is retained
+     * @param task Task waiting for decoded photo
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @param position Adapter position of the item, or DecodeExecutor.NO_POSITION
+     * @return Job that will deliver decoded photo to given task
+     */
+    public static DecodeJob attach(Context context, BitmapLoaderTask task, String path, int size,
+                                   int position) {
+        final String key = BitmapMemoryCache.createKey(path, size);
+        DecodeJob job;
+        boolean started = false;
+        synchronized (IN_FLIGHT) {
+            job = IN_FLIGHT.get(key);
+            if (job != null) {
+                if (job.prefetched) {
+                    job.prefetched = false;
+                    prefetchJoinedCount++;
+                }
+                job.waiters.add(task);
+                // Latest requester decides priority, so job is not dropped while still needed,
+                // also job started without position is ranked by the visible cell joining it
+                job.position = position;
+                coalescedCount++;
+                if (LOCAL_LOG) Log.d(DEBUG_TAG, "Attached to pending decode, total: " + coalescedCount);
+            } else {
+                job = new DecodeJob(context.getApplicationContext(), key, path, size, position);
+                job.waiters.add(task);
+                IN_FLIGHT.put(key, job);
+                started = true;
+            }
+        }
+        // Executor is called outside of IN_FLIGHT lock, it cancels dropped jobs under its own lock
+        if (started) {
+            DecodeExecutor.getInstance().execute(job, position);
+        } else {
+            DecodeExecutor.getInstance().reprioritize(job);
+        }
+        return job;
+    }
+
+    /**
+     * Start decode of the photo that is likely to be requested soon, so its thumbnail is in cache
+     * when requested. Nothing is done if thumbnail is cached or already being decoded.
+     *
+     * @param context Any context, application context is retained
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @param position Adapter position of the item the photo is expected at
+     * @return true if decode was started
+     */
+    public static boolean prefetch(Context context, String path, int size, int position) {
+        if (BitmapMemoryCache.getInstance().contains(path, size)) return false;
+        final String key = BitmapMemoryCache.createKey(path, size);
+        final DecodeJob job;
+        synchronized (IN_FLIGHT) {
+            if (IN_FLIGHT.containsKey(key)) return false;
+            job = new DecodeJob(context.getApplicationContext(), key, path, size, position);
+            job.prefetched = true;
+            IN_FLIGHT.put(key, job);
+            prefetchStartedCount++;
+        }
+        DecodeExecutor.getInstance().execute(job, position);
+        return true;
+    }
+
+    /**
+     * @return Number of started prefetch decodes
+     */
+    public static int getPrefetchStartedCount() {
+        synchronized (IN_FLIGHT) {
+            return prefetchStartedCount;
+        }
+    }
+
+    /**
+     * @return Number of prefetch decodes requested by a task before they finished
+     */
+    public static int getPrefetchJoinedCount() {
+        synchronized (IN_FLIGHT) {
+            return prefetchJoinedCount;
+        }
+    }
+
+    /**
+     * @return Number of prefetch decodes cancelled before anybody requested them
+     */
+    public static int getPrefetchCancelledCount() {
+        synchronized (IN_FLIGHT) {
+            return prefetchCancelledCount;
+        }
+    }
+
+    /**
+     * @return Number of requests that were attached to already pending decode
+     */
+    public static int getCoalescedCount() {
+        synchronized (IN_FLIGHT) {
+            return coalescedCount;
+        }
+    }
+
+    /**
+     * Detach cancelled task, decode is aborted if no other task waits for it
+     *
+     * @param task Cancelled task
+     */
+    public void detach(BitmapLoaderTask task) {
+        synchronized (IN_FLIGHT) {
+            waiters.remove(task);
+            if (waiters.isEmpty()) {
+                abort();
+            }
+        }
+    }
+
+    /**
+     * Abort decode and cancel all attached tasks, called when job is dropped from the queue
+     */
+    @Override
+    public void cancel() {
+        synchronized (IN_FLIGHT) {
+            abort();
+            // Marked holding the lock, so tasks cannot be reused for another job meanwhile
+            for (BitmapLoaderTask task : waiters) {
+                task.markCancelled();
+            }
+            waiters.clear();
+        }
+    }
+
+    @Override
+    public int getPosition() { return position; }
+
+    public boolean isCancelled() { return cancelled; }
+
+    /**
+     * @return Time spent on decodes that were aborted before delivering result
+     */
+    public static long getWastedDecodeMillis() {
+        synchronized (IN_FLIGHT) {
+            return wastedDecodeMillis;
+        }
+    }
+
+    /*
+     * Decoding done off the main UI thread
+     */
+    @Override
+    public void run() {
+        if (cancelled) return;
+
+        Bitmap bitmap = null;
+        boolean decoded = false;
+        try {
+            bitmap = DiskThumbnailCache.getInstance(context).get(path, size);
+            if (bitmap == null) {
+                bitmap = decode();
+                decoded = bitmap != null;
+            }
+        } catch (RuntimeException e) {
+            Log.w(DEBUG_TAG, "Cannot decode " + path, e);
+        }
+        if (bitmap != null) PreviewColors.getInstance(context).put(path, bitmap);
+        if (cancelled) {
+            // Nobody waits for the result, thumbnail is kept in disk cache only
+            if (decoded) storeOnDisk(bitmap);
+            BitmapPool.getInstance().put(bitmap);
+            return;
+        }
+
+        // Retained until the bitmap is delivered, so it cannot be pooled when evicted from cache
+        BitmapPool.getInstance().retain(bitmap);
+        final boolean unclaimedPrefetch;
+        synchronized (IN_FLIGHT) {
+            unclaimedPrefetch = prefetched;
+            // Full screen preview would evict every cached thumbnail
+            if (isThumbnailSize(size)) {
+                BitmapMemoryCache.getInstance().put(path, size, bitmap, unclaimedPrefetch);
+            }
+            // Nobody waits for prefetched thumbnail, next requests find it in cache
+            if (unclaimedPrefetch && IN_FLIGHT.get(key) == this) IN_FLIGHT.remove(key);
+        }
+        if (unclaimedPrefetch) {
+            if (decoded) storeOnDisk(bitmap);
+            BitmapPool.getInstance().release(bitmap);
+            return;
+        }
+
+        // Retained until it's written to disk, delivery releases only its own reference
+        if (decoded) BitmapPool.getInstance().retain(bitmap);
+        final Bitmap result = bitmap;
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                deliver(result);
+            }
+        });
+        if (decoded) {
+            storeOnDisk(bitmap);
+            BitmapPool.getInstance().release(bitmap);
+        }
+    }
+
+    /*
+     * Compress decoded photo into disk cache
+     */
+    private void storeOnDisk(Bitmap bitmap) {
+        try {
+            DiskThumbnailCache.getInstance(context).put(path, size, bitmap);
+        } catch (RuntimeException e) {
+            Log.w(DEBUG_TAG, "Cannot store thumbnail of " + path, e);
+        }
+    }
+
+    /*
+     * Decode photo, keeping options so decoding can be aborted from another thread
+     */
+    private Bitmap decode() {
+        final BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        synchronized (IN_FLIGHT) {
+            if (cancelled) return null;
+            options = decodeOptions;
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        // Thumbnails are shown by square cells, full screen previews keep their aspect ratio
+        final int scaleMode = isThumbnailSize(size)
+                ? PhotoLoader.SCALE_MODE_CROP : PhotoLoader.SCALE_MODE_FIT;
+        final Bitmap bitmap =
+                new PhotoLoader().decodePhoto(path, size, size, scaleMode, decodeOptions);
+
+        synchronized (IN_FLIGHT) {
+            options = null;
+            if (cancelled) {
+                wastedDecodeMillis += SystemClock.elapsedRealtime() - start;
+                if (LOCAL_LOG) Log.d(DEBUG_TAG, "Decode aborted, wasted time: " + wastedDecodeMillis + " ms");
+            }
+        }
+        return bitmap;
+    }
+
+    /*
+     * Thumbnails are cached in memory and on disk, larger bitmaps are not
+     */
+    private static boolean isThumbnailSize(int size) {
+        return size <= DiskThumbnailCache.MAX_THUMBNAIL_SIZE;
+    }
+
+    /*
+     * Pass decoded bitmap to all tasks that are still attached, called on the main UI thread
+     */
+    private void deliver(Bitmap bitmap) {
+        final List<BitmapLoaderTask> attachedTasks;
+        synchronized (IN_FLIGHT) {
+            if (IN_FLIGHT.get(key) == this) IN_FLIGHT.remove(key);
+            attachedTasks = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        for (BitmapLoaderTask task : attachedTasks) {
+            task.onDecoded(bitmap);
+        }
+        BitmapPool.getInstance().release(bitmap);
+    }
+
+    /*
+     * Must be called holding IN_FLIGHT lock
+     */
+    private void abort() {
+        if (prefetched && !cancelled) prefetchCancelledCount++;
+        cancelled = true;
+        if (options != null) options.requestCancelDecode();
+        if (IN_FLIGHT.get(key) == this) IN_FLIGHT.remove(key);
+    }
+}
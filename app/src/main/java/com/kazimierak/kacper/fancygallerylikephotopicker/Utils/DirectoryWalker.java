@@ -0,0 +1,252 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Walks directory tree on several threads looking for images. Every directory is a separate unit
+ * of work placed in a deque shared by all workers, so a thread that finished its directory takes
+ * next one from any branch of the tree, and deep or wide branches are scanned concurrently.
+ * Workers take most recently found directories first, so the walk stays close to depth first
+ * order and the deque stays small.
+ *
+ * Work done in every directory is decided by a DirectoryVisitor, e.g. GalleryScanner skips
+ * directories that did not change and passes found images straight to OnImageFoundListener, no
+ * intermediate lists are built.
+ *
+ * ForkJoinPool is available since Lollipop only, so workers run on own ThreadPoolExecutor.
+ */
+
+public class DirectoryWalker {
+
+    private final static String DEBUG_TAG = "DirectoryWalker";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Depth limit protecting the walk from symbolic link loops
+     */
+    public static final int DEFAULT_MAX_DEPTH = 32;
+
+    /**
+     * Idle worker threads are stopped after this time
+     */
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static ThreadPoolExecutor workerExecutor;
+
+    private final int parallelism;
+    private final int maxDepth;
+
+    /**
+     * Receives images found by the walker. Called concurrently from all worker threads.
+     */
+    public interface OnImageFoundListener {
+        void onImageFound(File file);
+    }
+
+    /**
+     * Decides what is done in every visited directory. Called concurrently from all worker
+     * threads.
+     */
+    public interface DirectoryVisitor {
+
+        /**
+         * Visit single directory
+         *
+         * @param directory Visited directory
+         * @param detector Detector owned by calling worker
+         * @param subdirectories Empty list to be filled with subdirectories that should be walked
+         */
+        void visitDirectory(File directory, ImageTypeDetector detector, List<File> subdirectories);
+    }
+
+    /**
+     * Create walker with one worker per available core
+     */
+    public DirectoryWalker() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param parallelism Number of threads walking the tree, including calling thread
+     * @param maxDepth Maximal depth of visited directories, starting directory has depth 0
+     */
+    public DirectoryWalker(int parallelism, int maxDepth) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism < 1");
+        if (maxDepth < 0) throw new IllegalArgumentException("maxDepth < 0");
+        this.parallelism = parallelism;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Walk given directory and its subdirectories, blocks until every directory returned by the
+     * visitor was visited. Calling thread takes part in the walk.
+     *
+     * @param startingDirectory Root of the walked tree
+     * @param visitor Visitor deciding what is done in every directory, must be thread-safe
+     * @return Number of visited directories
+     */
+    public int walk(File startingDirectory, DirectoryVisitor visitor) {
+        final long start = SystemClock.elapsedRealtime();
+        final Walk walk = new Walk(visitor);
+        walk.push(new Directory(startingDirectory, 0));
+
+        for (int i = 1; i < parallelism; i++) {
+            try {
+                getWorkerExecutor().execute(walk);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        walk.run();
+
+        final int visited = walk.directoryCount.get();
+        if (LOCAL_LOG) Log.d(DEBUG_TAG, "Walked " + visited + " directories in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        return visited;
+    }
+
+    /*
+     * Threads shared by all walks, started on demand
+     */
+    private static synchronized ThreadPoolExecutor getWorkerExecutor() {
+        if (workerExecutor == null) {
+            final int poolSize = Runtime.getRuntime().availableProcessors();
+            workerExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger threadCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    runnable.run();
+                                }
+                            }, "Walker #" + threadCount.incrementAndGet());
+                        }
+                    });
+            workerExecutor.allowCoreThreadTimeOut(true);
+        }
+        return workerExecutor;
+    }
+
+    /*
+     * Directory waiting to be listed
+     */
+    private static class Directory {
+        final File file;
+        final int depth;
+
+        Directory(File file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+
+    /*
+     * State of single walk, run by every worker taking part in it
+     */
+    private class Walk implements Runnable {
+
+        /*
+         * Marks the end of the walk, one is pushed for every worker
+         */
+        private final Directory finished = new Directory(null, 0);
+
+        private final LinkedBlockingDeque<Directory> deque = new LinkedBlockingDeque<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger directoryCount = new AtomicInteger();
+        private final DirectoryVisitor visitor;
+
+        Walk(DirectoryVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        void push(Directory directory) {
+            pending.incrementAndGet();
+            deque.addFirst(directory);
+        }
+
+        @Override
+        public void run() {
+            // Detector reuses its buffer, so every worker needs own one
+            final ImageTypeDetector detector = new ImageTypeDetector();
+            final List<File> subdirectories = new ArrayList<>();
+            try {
+                while (true) {
+                    final Directory directory = deque.takeFirst();
+                    if (directory == finished) return;
+
+                    try {
+                        visit(directory, detector, subdirectories);
+                    } catch (RuntimeException e) {
+                        // Walk would never finish if worker stopped here
+                        Log.w(DEBUG_TAG, "Cannot visit " + directory.file, e);
+                    }
+                    subdirectories.clear();
+
+                    if (pending.decrementAndGet() == 0) {
+                        // Nothing left in the tree, wake up other workers
+                        for (int i = 0; i < parallelism; i++) deque.addLast(finished);
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /*
+         * Visit single directory and push its subdirectories
+         */
+        private void visit(Directory directory, ImageTypeDetector detector,
+                           List<File> subdirectories) {
+            visitor.visitDirectory(directory.file, detector, subdirectories);
+            directoryCount.incrementAndGet();
+
+            if (directory.depth < maxDepth) {
+                for (File subdirectory : subdirectories) {
+                    push(new Directory(subdirectory, directory.depth + 1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Persistent cache of small, pre-scaled thumbnails stored in application cache directory.
+ * Decoding thumbnail from such file is much cheaper than decoding full size camera photo, so
+ * after first launch grid can be filled without touching original photos.
+ *
+ * Keys are built from photo path, file length and last modification time, so thumbnail of edited
+ * or replaced photo is never returned, stale entries are removed by LRU eviction. Total size of
+ * stored files is bounded by byte budget given in constructor.
+ *
+ * Every change is appended to journal file, entry is recorded only after thumbnail file was fully
+ * written and renamed, so after crash cache contains only complete thumbnails. Journal is read
+ * lazily on first access, off the main UI thread.
+ *
+ * Reads only update access order in memory, hits do not touch the journal. Access order is
+ * stored when journal is rebuilt, on compaction or flush. Order lost in a crash only makes
+ * eviction less accurate.
+ */
+
+public class DiskThumbnailCache {
+
+    private final static String DEBUG_TAG = "DiskThumbnailCache";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Default byte budget for thumbnails stored on disk
+     */
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Only thumbnails up to this size are stored, full screen previews are not cached on disk
+     */
+    public static final int MAX_THUMBNAIL_SIZE = 512;
+
+    private static final String CACHE_DIR = "thumbnails";
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String JOURNAL_HEADER = "fancyphotopicker.thumbnails.1";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /*
+     * Journal operations, READ is no longer written but still understood
+     */
+    private static final String CLEAN = "CLEAN";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    /**
+     * Number of redundant journal lines after which journal is rebuilt
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private static final int JPEG_QUALITY = 85;
+
+    private static DiskThumbnailCache instance;
+
+    private final File directory;
+    private final long maxBytes;
+
+    /*
+     * File name -> file length, in access order, so first entry is least recently used
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(0, 0.75f, true);
+    private long totalBytes;
+    private int redundantOpCount;
+
+    /*
+     * Number of hits since the journal was rebuilt, their order is not stored yet
+     */
+    private int unsavedReadCount;
+    private Writer journalWriter;
+    private boolean opened;
+
+    /**
+     * @param directory Directory where thumbnails and journal are stored
+     * @param maxBytes Maximal summary size of stored thumbnails
+     */
+    public DiskThumbnailCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get cache shared by whole application, placed in application cache directory
+     *
+     * @param context Any context, application context is retained
+     * @return Shared disk cache instance
+     */
+    public static synchronized DiskThumbnailCache getInstance(Context context) {
+        if (instance == null) {
+            final File directory = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+            instance = new DiskThumbnailCache(directory, DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * Creates file name of the thumbnail. Name depends on file length and modification time, so
+     * modified photos get new entries.
+     *
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @return Name of thumbnail file, or null if photo does not exist or size is not cached
+     */
+    public static String createKey(String path, int size) {
+        if (size > MAX_THUMBNAIL_SIZE) return null;
+        final File photo = new File(path);
+        final long lastModified = photo.lastModified();
+        if (lastModified == 0) return null;
+        return md5(path + '|' + photo.length() + '|' + lastModified + '|' + size);
+    }
+
+    /**
+     * Get thumbnail of the photo, must be called off the main UI thread
+     *
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @return Decoded thumbnail, or null if there is no valid thumbnail on disk
+     */
+    public Bitmap get(String path, int size) {
+        final String key = createKey(path, size);
+        if (key == null) return null;
+
+        synchronized (this) {
+            ensureOpened();
+            if (entries.get(key) == null) return null;
+            unsavedReadCount++;
+        }
+
+        // Decoded into pooled bitmap, so thumbnails read from disk can be pooled again as well
+        final String file = new File(directory, key).getAbsolutePath();
+        final Bitmap bitmap = new PhotoLoader().decodeFileReusingBitmap(file);
+        if (bitmap == null) {
+            // File was removed outside of the cache or is damaged
+            remove(key);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Store thumbnail of the photo, scaled down so its shorter border is equal to requested size.
+     * Must be called off the main UI thread.
+     *
+     * @param path Path to the photo
+     * @param size Requested size of thumbnail
+     * @param bitmap Decoded photo
+     */
+    public void put(String path, int size, Bitmap bitmap) {
+        final String key = createKey(path, size);
+        if (key == null || bitmap == null) return;
+
+        synchronized (this) {
+            ensureOpened();
+            if (entries.get(key) != null) return;
+        }
+
+        final File tmpFile = new File(directory,
+                key + '.' + Thread.currentThread().getId() + TMP_SUFFIX);
+        final Bitmap thumbnail = scaleToShorterBorder(bitmap, size);
+        boolean written = false;
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            written = thumbnail.compress(thumbnail.hasAlpha() ? Bitmap.CompressFormat.PNG
+                    : Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(DEBUG_TAG, "Cannot write thumbnail of " + path, e);
+        } finally {
+            closeQuietly(out);
+            if (thumbnail != bitmap) thumbnail.recycle();
+        }
+
+        synchronized (this) {
+            final File file = new File(directory, key);
+            if (!written || !tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                return;
+            }
+            final long length = file.length();
+            final Long previous = entries.put(key, length);
+            if (previous != null) {
+                totalBytes -= previous;
+                redundantOpCount++;
+            }
+            totalBytes += length;
+            appendJournal(CLEAN, key, length);
+            trimToSize();
+        }
+    }
+
+    /**
+     * Store access order of thumbnails read since the journal was written, e.g. when gallery is
+     * hidden. Must be called off the main UI thread.
+     */
+    public synchronized void flush() {
+        if (opened && unsavedReadCount > 0) rebuildJournal();
+    }
+
+    /**
+     * @return Summary byte count of stored thumbnails
+     */
+    public synchronized long getSize() { return totalBytes; }
+
+    public long getMaxSize() { return maxBytes; }
+
+    /**
+     * Remove all thumbnails from disk
+     */
+    public synchronized void clear() {
+        ensureOpened();
+        for (String key : entries.keySet()) {
+            new File(directory, key).delete();
+        }
+        entries.clear();
+        totalBytes = 0;
+        rebuildJournal();
+    }
+
+    private synchronized void remove(String key) {
+        final Long length = entries.remove(key);
+        if (length != null) {
+            totalBytes -= length;
+            new File(directory, key).delete();
+            appendJournal(REMOVE, key, -1);
+        }
+    }
+
+    /*
+     * Remove least recently used thumbnails until cache fits in byte budget
+     */
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            new File(directory, eldest.getKey()).delete();
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+            appendJournal(REMOVE, eldest.getKey(), -1);
+        }
+    }
+
+    /*
+     * Read journal on first access. Journal that cannot be read is dropped together with all
+     * thumbnails, as there is no way to tell which files are complete.
+     */
+    private void ensureOpened() {
+        if (opened) return;
+        opened = true;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(DEBUG_TAG, "Cannot create cache directory " + directory);
+            return;
+        }
+
+        final File journalFile = new File(directory, JOURNAL_FILE);
+        if (journalFile.exists()) {
+            try {
+                readJournal(journalFile);
+            } catch (IOException e) {
+                Log.w(DEBUG_TAG, "Journal is corrupted, clearing cache", e);
+                entries.clear();
+                totalBytes = 0;
+            }
+        }
+        deleteUntrackedFiles();
+        rebuildJournal();
+        if (LOCAL_LOG) Log.d(DEBUG_TAG, "Opened: " + entries.size() + " thumbnails, " + totalBytes + " bytes");
+    }
+
+    private void readJournal(File journalFile) throws IOException {
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+        try {
+            if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    // Last line might be incomplete after crash, skip it
+                    continue;
+                }
+                final String key = parts[1];
+                if (CLEAN.equals(parts[0]) && parts.length == 3) {
+                    final long length = Long.parseLong(parts[2]);
+                    final Long previous = entries.put(key, length);
+                    if (previous != null) totalBytes -= previous;
+                    totalBytes += length;
+                } else if (REMOVE.equals(parts[0])) {
+                    final Long previous = entries.remove(key);
+                    if (previous != null) totalBytes -= previous;
+                } else if (READ.equals(parts[0])) {
+                    // Written by older versions of the cache
+                    entries.get(key);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected journal line", e);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /*
+     * Remove temporary files and thumbnails which were not recorded in journal before crash
+     */
+    private void deleteUntrackedFiles() {
+        final File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            final String name = file.getName();
+            if (!JOURNAL_FILE.equals(name) && !entries.containsKey(name)) {
+                file.delete();
+            }
+        }
+        // Files removed outside of the cache
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            if (!new File(directory, entry.getKey()).exists()) {
+                totalBytes -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    /*
+     * Write compact journal containing only current entries, in LRU order
+     */
+    private void rebuildJournal() {
+        closeQuietly(journalWriter);
+        journalWriter = null;
+
+        final File journalFile = new File(directory, JOURNAL_FILE);
+        final File tmpFile = new File(directory, JOURNAL_FILE_TMP);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+            writer.write(JOURNAL_HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+            writer.close();
+            writer = null;
+            if (!tmpFile.renameTo(journalFile)) {
+                throw new IOException("Cannot replace journal");
+            }
+            journalWriter = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8"));
+            redundantOpCount = 0;
+            unsavedReadCount = 0;
+        } catch (IOException e) {
+            Log.w(DEBUG_TAG, "Cannot write journal", e);
+            closeQuietly(writer);
+        }
+    }
+
+    private void appendJournal(String operation, String key, long length) {
+        if (journalWriter == null) return;
+        try {
+            journalWriter.write(operation);
+            journalWriter.write(' ');
+            journalWriter.write(key);
+            if (length >= 0) {
+                journalWriter.write(' ');
+                journalWriter.write(Long.toString(length));
+            }
+            journalWriter.write('\n');
+            journalWriter.flush();
+        } catch (IOException e) {
+            Log.w(DEBUG_TAG, "Cannot append to journal", e);
+        }
+        if (!CLEAN.equals(operation)) redundantOpCount++;
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && redundantOpCount >= entries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    /*
+     * Scale bitmap so its shorter border is equal to size, CardViews crop thumbnails to square
+     */
+    private static Bitmap scaleToShorterBorder(Bitmap bitmap, int size) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int shorterBorder = Math.min(width, height);
+        if (shorterBorder <= size) return bitmap;
+
+        final float ratio = (float) size / shorterBorder;
+        return Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * ratio)),
+                Math.max(1, Math.round(height * ratio)), true);
+    }
+
+    private static String md5(String value) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            final byte[] hash = digest.digest(value.getBytes("UTF-8"));
+            final StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
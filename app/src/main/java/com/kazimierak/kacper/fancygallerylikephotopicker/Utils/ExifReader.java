@@ -0,0 +1,182 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Minimal reader of EXIF data stored in APP1 segment of JPEG file. Works on bytes of the file
+ * header that were already read, so getting orientation does not open the file again like
+ * ExifInterface does.
+ *
+ * Position of the JPEG thumbnail embedded in IFD1 can be found as well, so the thumbnail can be
+ * decoded without decoding the photo.
+ */
+
+public class ExifReader {
+
+    private static final int MARKER_PREFIX = 0xFF;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private ExifReader() {}
+
+    /**
+     * Read EXIF orientation from JPEG header
+     *
+     * @param data Bytes from the beginning of the file
+     * @param length Number of valid bytes in data
+     * @return Orientation, one of ExifInterface.ORIENTATION_* values, or
+     * ImageInfo.ORIENTATION_UNDEFINED if there is no orientation in given bytes
+     */
+    public static int readOrientation(byte[] data, int length) {
+        final int tiffStart = findTiffHeader(data, length);
+        if (tiffStart < 0) return ImageInfo.ORIENTATION_UNDEFINED;
+
+        final boolean littleEndian = data[tiffStart] == 'I';
+        final int ifdOffset = readInt(data, tiffStart + 4, littleEndian);
+        final int entry = findEntry(data, length, tiffStart, ifdOffset, TAG_ORIENTATION, littleEndian);
+        if (entry < 0 || readShort(data, entry + 2, littleEndian) != TYPE_SHORT) {
+            return ImageInfo.ORIENTATION_UNDEFINED;
+        }
+        return readShort(data, entry + 8, littleEndian);
+    }
+
+    /**
+     * Find JPEG thumbnail embedded in IFD1 of EXIF data. Thumbnail may end beyond given bytes.
+     *
+     * @param data Bytes from the beginning of the file
+     * @param length Number of valid bytes in data
+     * @return Offset of the thumbnail from the beginning of the file in upper 32 bits and its
+     * length in lower 32 bits, or -1 if there is no thumbnail
+     */
+    public static long findThumbnail(byte[] data, int length) {
+        final int tiffStart = findTiffHeader(data, length);
+        if (tiffStart < 0) return -1;
+
+        final boolean littleEndian = data[tiffStart] == 'I';
+        final int ifd0Start = tiffStart + readInt(data, tiffStart + 4, littleEndian);
+        if (ifd0Start < tiffStart + 8 || ifd0Start + 2 > length) return -1;
+        final int nextIfdField = ifd0Start + 2 + readShort(data, ifd0Start, littleEndian) * 12;
+        if (nextIfdField + 4 > length) return -1;
+        final int ifd1Offset = readInt(data, nextIfdField, littleEndian);
+        if (ifd1Offset == 0) return -1;
+
+        final int offset = readUnsigned(data, length, tiffStart, ifd1Offset, TAG_THUMBNAIL_OFFSET,
+                littleEndian);
+        final int thumbnailLength = readUnsigned(data, length, tiffStart, ifd1Offset,
+                TAG_THUMBNAIL_LENGTH, littleEndian);
+        if (offset <= 0 || thumbnailLength <= 0) return -1;
+        return ((long) (tiffStart + offset) << 32) | thumbnailLength;
+    }
+
+    /*
+     * Read value of SHORT or LONG entry with given tag, returns -1 if not found
+     */
+    private static int readUnsigned(byte[] data, int length, int tiffStart, int ifdOffset, int tag,
+                                    boolean littleEndian) {
+        final int entry = findEntry(data, length, tiffStart, ifdOffset, tag, littleEndian);
+        if (entry < 0) return -1;
+        final int type = readShort(data, entry + 2, littleEndian);
+        if (type == TYPE_SHORT) return readShort(data, entry + 8, littleEndian);
+        if (type == TYPE_LONG) return readInt(data, entry + 8, littleEndian);
+        return -1;
+    }
+
+    /*
+     * Find TIFF header inside APP1 Exif segment, returns its offset or -1 if not found
+     */
+    static int findTiffHeader(byte[] data, int length) {
+        if (length < 4 || (data[0] & 0xFF) != MARKER_PREFIX || (data[1] & 0xFF) != MARKER_SOI) {
+            return -1;
+        }
+        int offset = 2;
+        while (offset + 4 <= length) {
+            if ((data[offset] & 0xFF) != MARKER_PREFIX) return -1;
+            final int marker = data[offset + 1] & 0xFF;
+            if (marker == MARKER_PREFIX) {
+                // Fill byte
+                offset++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) return -1;
+
+            final int segmentLength = readShort(data, offset + 2, false);
+            if (marker == MARKER_APP1 && offset + 10 + 8 <= length
+                    && data[offset + 4] == 'E' && data[offset + 5] == 'x'
+                    && data[offset + 6] == 'i' && data[offset + 7] == 'f'
+                    && data[offset + 8] == 0 && data[offset + 9] == 0) {
+                final int tiffStart = offset + 10;
+                final byte order = data[tiffStart];
+                if ((order == 'I' || order == 'M') && data[tiffStart + 1] == order) {
+                    return tiffStart;
+                }
+                return -1;
+            }
+            offset += 2 + segmentLength;
+        }
+        return -1;
+    }
+
+    /*
+     * Find IFD entry with given tag, returns offset of the entry or -1 if not found
+     */
+    static int findEntry(byte[] data, int length, int tiffStart, int ifdOffset, int tag,
+                         boolean littleEndian) {
+        final int ifdStart = tiffStart + ifdOffset;
+        if (ifdOffset < 8 || ifdStart + 2 > length) return -1;
+
+        final int entryCount = readShort(data, ifdStart, littleEndian);
+        for (int i = 0; i < entryCount; i++) {
+            final int entry = ifdStart + 2 + i * 12;
+            if (entry + 12 > length) return -1;
+            if (readShort(data, entry, littleEndian) == tag) return entry;
+        }
+        return -1;
+    }
+
+    static int readShort(byte[] data, int offset, boolean littleEndian) {
+        final int b0 = data[offset] & 0xFF;
+        final int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    static int readInt(byte[] data, int offset, boolean littleEndian) {
+        final int b0 = data[offset] & 0xFF;
+        final int b1 = data[offset + 1] & 0xFF;
+        final int b2 = data[offset + 2] & 0xFF;
+        final int b3 = data[offset + 3] & 0xFF;
+        return littleEndian
+                ? (b3 << 24) | (b2 << 16) | (b1 << 8) | b0
+                : (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+    }
+}
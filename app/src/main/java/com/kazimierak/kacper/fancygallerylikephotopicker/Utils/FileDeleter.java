@@ -0,0 +1,235 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Deletes files off the main UI thread. Paths are split into batches deleted in parallel, and
+ * progress is reported on the main UI thread after every batch. When all batches are done, deleted
+ * files are removed from GalleryIndex and media scanner is notified once for all of them.
+ *
+ * Files that could not be deleted are reported separately, so only deleted ones are removed from
+ * the gallery.
+ */
+
+public class FileDeleter {
+
+    private final static String DEBUG_TAG = "FileDeleter";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Number of files deleted by single task
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Storage does not get faster with more threads, two of them hide latency of single delete
+     */
+    private static final int THREAD_COUNT = 2;
+
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static ThreadPoolExecutor deleteExecutor;
+
+    /**
+     * Receives progress and result of deletion, on the main UI thread
+     */
+    public interface OnDeleteListener {
+
+        /**
+         * @param deletedCount Number of files deleted so far
+         * @param failedCount Number of files that could not be deleted so far
+         * @param totalCount Number of all files to delete
+         */
+        void onDeleteProgress(int deletedCount, int failedCount, int totalCount);
+
+        /**
+         * @param deletedPaths Paths to deleted files
+         * @param failedPaths Paths to files that could not be deleted
+         */
+        void onDeleteFinished(List<String> deletedPaths, List<String> failedPaths);
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Context context;
+    private final List<String> paths;
+    private final OnDeleteListener listener;
+
+    /*
+     * Results, guarded by this
+     */
+    private final List<String> deletedPaths;
+    private final List<String> failedPaths = new ArrayList<>();
+
+    private final AtomicInteger remainingBatches = new AtomicInteger();
+    private long start;
+
+    /**
+     * @param context Any context, application context is retained
+     * @param paths Paths to files to delete
+     * @param listener Listener receiving progress and result
+     */
+    public FileDeleter(Context context, List<String> paths, OnDeleteListener listener) {
+        this.context = context.getApplicationContext();
+        this.paths = new ArrayList<>(paths);
+        this.listener = listener;
+        this.deletedPaths = new ArrayList<>(paths.size());
+    }
+
+    /**
+     * Start deleting files, must be called once, on the main UI thread
+     */
+    public void start() {
+        start = SystemClock.elapsedRealtime();
+        if (paths.isEmpty()) {
+            listener.onDeleteFinished(Collections.<String>emptyList(),
+                    Collections.<String>emptyList());
+            return;
+        }
+        final int batchCount = (paths.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        remainingBatches.set(batchCount);
+        for (int i = 0; i < batchCount; i++) {
+            final int from = i * BATCH_SIZE;
+            final int to = Math.min(paths.size(), from + BATCH_SIZE);
+            getDeleteExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    deleteBatch(paths.subList(from, to));
+                }
+            });
+        }
+    }
+
+    /*
+     * Delete single batch, called on deleting thread
+     */
+    private void deleteBatch(List<String> batch) {
+        final List<String> deleted = new ArrayList<>(batch.size());
+        final List<String> failed = new ArrayList<>();
+        for (String path : batch) {
+            if (new File(path).delete()) {
+                deleted.add(path);
+            } else {
+                Log.w(DEBUG_TAG, "Cannot delete " + path);
+                failed.add(path);
+            }
+        }
+
+        final int deletedCount;
+        final int failedCount;
+        synchronized (this) {
+            deletedPaths.addAll(deleted);
+            failedPaths.addAll(failed);
+            deletedCount = deletedPaths.size();
+            failedCount = failedPaths.size();
+        }
+
+        if (remainingBatches.decrementAndGet() > 0) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onDeleteProgress(deletedCount, failedCount, paths.size());
+                }
+            });
+        } else {
+            finish();
+        }
+    }
+
+    /*
+     * Called on deleting thread that finished the last batch
+     */
+    private void finish() {
+        final List<String> deleted;
+        final List<String> failed;
+        synchronized (this) {
+            deleted = new ArrayList<>(deletedPaths);
+            failed = new ArrayList<>(failedPaths);
+        }
+
+        if (!deleted.isEmpty()) {
+            GalleryIndex.getInstance(context).update(Collections.<GalleryIndex.Image>emptyList(),
+                    deleted, Collections.<GalleryIndex.Directory>emptyList(),
+                    Collections.<String>emptyList());
+            MediaScannerConnection.scanFile(context, deleted.toArray(new String[deleted.size()]),
+                    null, new MediaScannerConnection.OnScanCompletedListener() {
+                        public void onScanCompleted(String path, Uri uri) {
+                        }
+                    });
+        }
+        if (LOCAL_LOG) Log.d(DEBUG_TAG, "Deleted " + deleted.size() + " files, failed: "
+                + failed.size() + ", " + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onDeleteFinished(deleted, failed);
+            }
+        });
+    }
+
+    /*
+     * Threads shared by all deleters, started on demand
+     */
+    private static synchronized ThreadPoolExecutor getDeleteExecutor() {
+        if (deleteExecutor == null) {
+            deleteExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger threadCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    runnable.run();
+                                }
+                            }, "Delete #" + threadCount.incrementAndGet());
+                        }
+                    });
+            deleteExecutor.allowCoreThreadTimeOut(true);
+        }
+        return deleteExecutor;
+    }
+}
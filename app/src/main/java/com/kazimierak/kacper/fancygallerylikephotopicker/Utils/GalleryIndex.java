@@ -0,0 +1,497 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Persistent index of images found on the device, so gallery can be shown right after start
+ * without walking the storage, and following scans only have to list directories that changed.
+ *
+ * Index keeps every image with its size and modification time, and every walked directory with
+ * its modification time. Directory's modification time changes when an entry is added, removed
+ * or renamed inside it, so directory with unchanged time does not need to be listed again.
+ *
+ * Every image may have average color of its thumbnail stored, used as a preview while the grid is
+ * flung. Color is reset when the image changes.
+ *
+ * Paths are stored as absolute paths, whole subtree of a directory is selected with range query
+ * on the primary key ('/' + 1 == '0').
+ *
+ * Images are listed in index order, the order they were found in by scans, which is the order the
+ * gallery shows them in. Modified images keep their place. Pages of the list are read by row id of
+ * the neighbouring page, so reading a page does not depend on its position.
+ */
+
+public class GalleryIndex extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "gallery_index.db";
+    private static final int DATABASE_VERSION = 2;
+
+    /**
+     * Maximal number of row ids bound to single query, SQLite allows 999 parameters
+     */
+    private static final int MAX_QUERY_IDS = 500;
+
+    private static GalleryIndex instance;
+
+    /**
+     * Image stored in the index. Scanner reads only signature of the file, so width and height
+     * are 0 until known, PhotoLoader reads them from the header when the image is decoded.
+     */
+    public static final class Image {
+        public final String path;
+        public final long length;
+        public final long lastModified;
+        public final int width;
+        public final int height;
+
+        public Image(String path, long length, long lastModified, int width, int height) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Page of image paths in index order, with row id of every image. Row id is kept while image
+     * stays in the index, row ids of first and last image are used to read neighbouring pages.
+     */
+    public static final class PathPage {
+        public final List<String> paths;
+        public final long[] ids;
+        public final long firstId;
+        public final long lastId;
+
+        public PathPage(List<String> paths, long[] ids) {
+            this.paths = paths;
+            this.ids = ids;
+            this.firstId = ids.length > 0 ? ids[0] : 0;
+            this.lastId = ids.length > 0 ? ids[ids.length - 1] : 0;
+        }
+    }
+
+    /**
+     * Receives preview colors read from the index
+     */
+    public interface OnPreviewColorReadListener {
+        void onPreviewColorRead(String path, int color);
+    }
+
+    /**
+     * Directory stored in the index
+     */
+    public static final class Directory {
+        public final String path;
+        public final String parent;
+        public final long lastModified;
+
+        public Directory(String path, String parent, long lastModified) {
+            this.path = path;
+            this.parent = parent;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private GalleryIndex(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Get index shared by whole application
+     *
+     * @param context Any context, application context is retained
+     * @return Shared gallery index instance
+     */
+    public static synchronized GalleryIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new GalleryIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Scanning threads read the index while it's being updated
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE images (path TEXT PRIMARY KEY, directory TEXT NOT NULL, "
+                + "length INTEGER NOT NULL, modified INTEGER NOT NULL, "
+                + "width INTEGER NOT NULL, height INTEGER NOT NULL, "
+                + "color INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX images_directory ON images (directory)");
+        db.execSQL("CREATE TABLE directories (path TEXT PRIMARY KEY, parent TEXT, "
+                + "modified INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion == 1) {
+            db.execSQL("ALTER TABLE images ADD COLUMN color INTEGER NOT NULL DEFAULT 0");
+            return;
+        }
+        // Index can be always rebuilt from the storage
+        db.execSQL("DROP TABLE IF EXISTS images");
+        db.execSQL("DROP TABLE IF EXISTS directories");
+        onCreate(db);
+    }
+
+    /**
+     * @return Paths of all indexed images, in index order
+     */
+    public List<String> getImagePaths() {
+        final Cursor cursor = getReadableDatabase()
+                .rawQuery("SELECT path FROM images ORDER BY rowid", null);
+        try {
+            final List<String> paths = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                paths.add(cursor.getString(0));
+            }
+            return paths;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return Number of indexed images
+     */
+    public int getImageCount() {
+        final Cursor cursor = getReadableDatabase().rawQuery("SELECT COUNT(*) FROM images", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read single page of indexed image paths by its position. Query skips all preceding images,
+     * pages next to already read ones should be read with getImagePageAfter or getImagePageBefore.
+     *
+     * @param offset Position of the first path
+     * @param limit Maximal number of paths
+     * @return Page of paths in index order, fewer than limit at the end of the index
+     */
+    public PathPage getImagePage(int offset, int limit) {
+        return readPage(getReadableDatabase().rawQuery(
+                "SELECT rowid, path FROM images ORDER BY rowid LIMIT ? OFFSET ?",
+                new String[]{String.valueOf(limit), String.valueOf(offset)}), false);
+    }
+
+    /**
+     * Read single page of indexed image paths following given image
+     *
+     * @param id Row id of the last image of previous page
+     * @param limit Maximal number of paths
+     * @return Page of paths in index order, fewer than limit at the end of the index
+     */
+    public PathPage getImagePageAfter(long id, int limit) {
+        return readPage(getReadableDatabase().rawQuery(
+                "SELECT rowid, path FROM images WHERE rowid > ? ORDER BY rowid LIMIT ?",
+                new String[]{String.valueOf(id), String.valueOf(limit)}), false);
+    }
+
+    /**
+     * Read single page of indexed image paths preceding given image
+     *
+     * @param id Row id of the first image of next page
+     * @param limit Maximal number of paths
+     * @return Page of paths in index order, fewer than limit at the beginning of the index
+     */
+    public PathPage getImagePageBefore(long id, int limit) {
+        return readPage(getReadableDatabase().rawQuery(
+                "SELECT rowid, path FROM images WHERE rowid < ? ORDER BY rowid DESC LIMIT ?",
+                new String[]{String.valueOf(id), String.valueOf(limit)}), true);
+    }
+
+    /*
+     * Read page of paths from cursor returning row id and path, and close it
+     */
+    private static PathPage readPage(Cursor cursor, boolean descending) {
+        try {
+            final int count = cursor.getCount();
+            final List<String> paths = new ArrayList<>(count);
+            final long[] ids = new long[count];
+            while (cursor.moveToNext()) {
+                final int i = descending ? count - 1 - paths.size() : paths.size();
+                ids[i] = cursor.getLong(0);
+                paths.add(cursor.getString(1));
+            }
+            if (descending) Collections.reverse(paths);
+            return new PathPage(paths, ids);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return Row ids of all indexed images, row ids of the index fit in int
+     */
+    public BitSet getImageIds() {
+        final Cursor cursor = getReadableDatabase().rawQuery("SELECT rowid FROM images", null);
+        try {
+            final BitSet ids = new BitSet();
+            while (cursor.moveToNext()) {
+                ids.set((int) cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param ids Row ids of images
+     * @return Paths of images with given row ids still present in the index, in index order
+     */
+    public List<String> getImagePaths(BitSet ids) {
+        final SQLiteDatabase db = getReadableDatabase();
+        final List<String> paths = new ArrayList<>(ids.cardinality());
+        final List<String> args = new ArrayList<>(MAX_QUERY_IDS);
+        final StringBuilder query = new StringBuilder();
+        for (int id = ids.nextSetBit(0); id >= 0; ) {
+            // Ids are queried in ascending chunks, so paths stay in index order
+            args.clear();
+            query.setLength(0);
+            query.append("SELECT path FROM images WHERE rowid IN (");
+            for (; id >= 0 && args.size() < MAX_QUERY_IDS; id = ids.nextSetBit(id + 1)) {
+                query.append(args.isEmpty() ? "?" : ", ?");
+                args.add(String.valueOf(id));
+            }
+            query.append(") ORDER BY rowid");
+            final Cursor cursor =
+                    db.rawQuery(query.toString(), args.toArray(new String[args.size()]));
+            try {
+                while (cursor.moveToNext()) {
+                    paths.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return All indexed directories by path
+     */
+    public Map<String, Directory> getDirectories() {
+        final Cursor cursor = getReadableDatabase()
+                .rawQuery("SELECT path, parent, modified FROM directories", null);
+        try {
+            final Map<String, Directory> directories = new HashMap<>(cursor.getCount() * 2);
+            while (cursor.moveToNext()) {
+                final Directory directory = new Directory(cursor.getString(0),
+                        cursor.getString(1), cursor.getLong(2));
+                directories.put(directory.path, directory);
+            }
+            return directories;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param directory Path to the directory
+     * @return Images indexed directly in given directory, by path
+     */
+    public Map<String, Image> getImages(String directory) {
+        final Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT path, length, modified, width, height FROM images WHERE directory = ?",
+                new String[]{directory});
+        try {
+            final Map<String, Image> images = new HashMap<>(cursor.getCount() * 2);
+            while (cursor.moveToNext()) {
+                final Image image = new Image(cursor.getString(0), cursor.getLong(1),
+                        cursor.getLong(2), cursor.getInt(3), cursor.getInt(4));
+                images.put(image.path, image);
+            }
+            return images;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param directory Path to the directory
+     * @return Paths of images indexed in given directory and all its subdirectories
+     */
+    public List<String> getImagePathsInTree(String directory) {
+        final Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT path FROM images WHERE path >= ? AND path < ?",
+                new String[]{directory + '/', directory + '0'});
+        try {
+            final List<String> paths = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                paths.add(cursor.getString(0));
+            }
+            return paths;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read all stored preview colors
+     *
+     * @param listener Listener receiving every image that has preview color
+     */
+    public void readPreviewColors(OnPreviewColorReadListener listener) {
+        final Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT path, color FROM images WHERE color != 0", null);
+        try {
+            while (cursor.moveToNext()) {
+                listener.onPreviewColorRead(cursor.getString(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Store preview colors of indexed images in single transaction, paths that are not indexed
+     * are ignored
+     *
+     * @param colors Preview colors by image path
+     */
+    public void setPreviewColors(Map<String, Integer> colors) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            final SQLiteStatement updateColor =
+                    db.compileStatement("UPDATE images SET color = ? WHERE path = ?");
+            for (Map.Entry<String, Integer> entry : colors.entrySet()) {
+                updateColor.bindLong(1, entry.getValue());
+                updateColor.bindString(2, entry.getKey());
+                updateColor.execute();
+            }
+            updateColor.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Store result of a scan in single transaction
+     *
+     * @param images Images added or changed, added ones are appended to index order in list order
+     * @param removedImages Paths of images that no longer exist
+     * @param directories Directories listed by the scan
+     * @param removedDirectories Paths of directories that no longer exist, their whole subtrees
+     *                           are removed
+     */
+    public void update(List<Image> images, List<String> removedImages,
+                       List<Directory> directories, List<String> removedDirectories) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // Modified image is updated in place, so it keeps its row id and its place in the order
+            final SQLiteStatement updateImage = db.compileStatement("UPDATE images SET "
+                    + "directory = ?, length = ?, modified = ?, width = ?, height = ?, color = 0 "
+                    + "WHERE path = ?");
+            final SQLiteStatement insertImage = db.compileStatement("INSERT INTO images "
+                    + "(directory, length, modified, width, height, path) VALUES (?, ?, ?, ?, ?, ?)");
+            for (Image image : images) {
+                if (bindImage(updateImage, image).executeUpdateDelete() == 0) {
+                    bindImage(insertImage, image).executeInsert();
+                }
+            }
+            updateImage.close();
+            insertImage.close();
+
+            final SQLiteStatement deleteImage =
+                    db.compileStatement("DELETE FROM images WHERE path = ?");
+            for (String path : removedImages) {
+                deleteImage.bindString(1, path);
+                deleteImage.execute();
+            }
+            deleteImage.close();
+
+            final SQLiteStatement insertDirectory = db.compileStatement(
+                    "INSERT OR REPLACE INTO directories (path, parent, modified) VALUES (?, ?, ?)");
+            for (Directory directory : directories) {
+                insertDirectory.bindString(1, directory.path);
+                if (directory.parent != null) insertDirectory.bindString(2, directory.parent);
+                else insertDirectory.bindNull(2);
+                insertDirectory.bindLong(3, directory.lastModified);
+                insertDirectory.execute();
+            }
+            insertDirectory.close();
+
+            for (String path : removedDirectories) {
+                final String[] tree = {path, path + '/', path + '0'};
+                db.execSQL("DELETE FROM images WHERE path >= ? AND path < ?",
+                        new Object[]{tree[1], tree[2]});
+                db.execSQL("DELETE FROM directories WHERE path = ? OR (path >= ? AND path < ?)",
+                        tree);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /*
+     * Bind image to statement with directory, length, modified, width, height and path parameters
+     */
+    private static SQLiteStatement bindImage(SQLiteStatement statement, Image image) {
+        statement.bindString(1, getParent(image.path));
+        statement.bindLong(2, image.length);
+        statement.bindLong(3, image.lastModified);
+        statement.bindLong(4, image.width);
+        statement.bindLong(5, image.height);
+        statement.bindString(6, image.path);
+        return statement;
+    }
+
+    /*
+     * Path of the parent directory of given absolute path
+     */
+    private static String getParent(String path) {
+        final int separator = path.lastIndexOf('/');
+        return separator > 0 ? path.substring(0, separator) : "/";
+    }
+}
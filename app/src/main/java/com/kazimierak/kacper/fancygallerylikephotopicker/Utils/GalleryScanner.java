@@ -0,0 +1,231 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Incremental scan of images, comparing the storage with GalleryIndex. Directory whose
+ * modification time did not change since previous scan is not listed, its subdirectories are
+ * taken from the index, so rescan of unchanged tree costs one stat per directory. Files of changed
+ * directory are checked again only if their size or modification time changed.
+ *
+ * Images added since previous scan are reported as they are found, removed ones are returned when
+ * the scan is finished. Index is updated at the end of the scan in single transaction. Added
+ * images are appended to the index in the order they were reported, so the order of the index
+ * matches the order they are shown in.
+ */
+
+public class GalleryScanner implements DirectoryWalker.DirectoryVisitor {
+
+    private final static String DEBUG_TAG = "GalleryScanner";
+    private static final boolean LOCAL_LOG = false;
+
+    /*
+     * Serializes scans of the index. GalleryIndex's own monitor is not used, SQLiteOpenHelper
+     * locks it in getReadableDatabase(), which walker threads and other readers call during
+     * the scan.
+     */
+    private static final Object SCAN_LOCK = new Object();
+
+    private final GalleryIndex index;
+
+    /*
+     * State of the scan in progress, set by scan()
+     */
+    private Map<String, GalleryIndex.Directory> knownDirectories;
+    private Map<String, List<String>> knownSubdirectories;
+    private DirectoryWalker.OnImageFoundListener listener;
+
+    /*
+     * Directories listed even if their modification time did not change
+     */
+    private Set<String> forcedDirectories = Collections.emptySet();
+
+    /*
+     * Changes found by the scan, guarded by this
+     */
+    private final List<GalleryIndex.Image> changedImages = new ArrayList<>();
+    private final List<String> removedImages = new ArrayList<>();
+    private final List<GalleryIndex.Directory> changedDirectories = new ArrayList<>();
+    private final List<String> removedDirectories = new ArrayList<>();
+    private final List<String> removedPaths = new ArrayList<>();
+    private int unchangedDirectoryCount;
+
+    public GalleryScanner(GalleryIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * List given directories even if their modification time did not change, e.g. because a file
+     * inside was rewritten. Must be set before the scan.
+     *
+     * @param directories Paths to the directories
+     */
+    public void setChangedDirectories(Set<String> directories) {
+        forcedDirectories = directories;
+    }
+
+    /**
+     * Compare given directory tree with the index and update the index. Must not be called on the
+     * main UI thread, single scanner runs one scan. Scans of the same index are serialized.
+     *
+     * @param startingDirectory Root of the scanned tree
+     * @param listener Listener receiving images added since previous scan, must be thread-safe
+     * @return Paths of images removed since previous scan
+     */
+    public List<String> scan(File startingDirectory, DirectoryWalker.OnImageFoundListener listener) {
+        synchronized (SCAN_LOCK) {
+            return scanLocked(startingDirectory, listener);
+        }
+    }
+
+    private List<String> scanLocked(File startingDirectory,
+                                    DirectoryWalker.OnImageFoundListener listener) {
+        final long start = SystemClock.elapsedRealtime();
+        this.listener = listener;
+        knownDirectories = index.getDirectories();
+        knownSubdirectories = new HashMap<>(knownDirectories.size() * 2);
+        for (GalleryIndex.Directory directory : knownDirectories.values()) {
+            if (directory.parent == null) continue;
+            List<String> subdirectories = knownSubdirectories.get(directory.parent);
+            if (subdirectories == null) {
+                subdirectories = new ArrayList<>(2);
+                knownSubdirectories.put(directory.parent, subdirectories);
+            }
+            subdirectories.add(directory.path);
+        }
+
+        new DirectoryWalker().walk(startingDirectory, this);
+
+        synchronized (this) {
+            index.update(changedImages, removedImages, changedDirectories, removedDirectories);
+            if (LOCAL_LOG) Log.d(DEBUG_TAG, "Scan finished in " + (SystemClock.elapsedRealtime() - start)
+                    + " ms, unchanged directories: " + unchangedDirectoryCount
+                    + ", changed directories: " + changedDirectories.size()
+                    + ", changed images: " + changedImages.size()
+                    + ", removed images: " + removedPaths.size());
+            return new ArrayList<>(removedPaths);
+        }
+    }
+
+    @Override
+    public void visitDirectory(File directory, ImageTypeDetector detector,
+                               List<File> subdirectories) {
+        final String path = directory.getAbsolutePath();
+        final long lastModified = directory.lastModified();
+        if (lastModified == 0) return;
+
+        final GalleryIndex.Directory known = knownDirectories.get(path);
+        final List<String> knownChildren = knownSubdirectories.containsKey(path)
+                ? knownSubdirectories.get(path) : Collections.<String>emptyList();
+        if (known != null && known.lastModified == lastModified
+                && !forcedDirectories.contains(path)) {
+            // Nothing was added or removed, only subdirectories need to be checked
+            for (String child : knownChildren) {
+                subdirectories.add(new File(child));
+            }
+            synchronized (this) {
+                unchangedDirectoryCount++;
+            }
+            return;
+        }
+
+        final File[] files = directory.listFiles();
+        if (files == null) return;
+
+        final Map<String, GalleryIndex.Image> knownImages = known != null
+                ? index.getImages(path) : Collections.<String, GalleryIndex.Image>emptyMap();
+        final List<GalleryIndex.Image> images = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                subdirectories.add(file);
+                continue;
+            }
+            final String filePath = file.getAbsolutePath();
+            final GalleryIndex.Image knownImage = knownImages.remove(filePath);
+            final long length = file.length();
+            final long fileModified = file.lastModified();
+            if (knownImage != null && knownImage.length == length
+                    && knownImage.lastModified == fileModified) {
+                continue;
+            }
+
+            // Header cached before the file changed is stale
+            ImageInfoCache.getInstance().remove(filePath);
+            // Only the signature is read, dimensions are read when the thumbnail is decoded
+            if (detector.isImage(file, length)) {
+                final GalleryIndex.Image image = new GalleryIndex.Image(filePath, length,
+                        fileModified, 0, 0);
+                if (knownImage == null) {
+                    // Index order of added images follows the order they are reported in
+                    synchronized (this) {
+                        listener.onImageFound(file);
+                        changedImages.add(image);
+                    }
+                } else {
+                    images.add(image);
+                }
+            } else if (knownImage != null) {
+                // File was replaced by something that is not an image
+                removed.add(filePath);
+            }
+        }
+        removed.addAll(knownImages.keySet());
+        for (String removedPath : knownImages.keySet()) {
+            ImageInfoCache.getInstance().remove(removedPath);
+        }
+
+        final List<String> removedChildren = new ArrayList<>();
+        for (String child : knownChildren) {
+            if (!new File(child).isDirectory()) removedChildren.add(child);
+        }
+        final List<String> removedInTree = new ArrayList<>();
+        for (String child : removedChildren) {
+            removedInTree.addAll(index.getImagePathsInTree(child));
+        }
+
+        synchronized (this) {
+            changedImages.addAll(images);
+            removedImages.addAll(removed);
+            removedPaths.addAll(removed);
+            removedPaths.addAll(removedInTree);
+            removedDirectories.addAll(removedChildren);
+            changedDirectories.add(new GalleryIndex.Directory(path,
+                    known != null ? known.parent : directory.getParent(), lastModified));
+        }
+    }
+}
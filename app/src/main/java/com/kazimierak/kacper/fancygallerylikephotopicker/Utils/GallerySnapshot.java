@@ -0,0 +1,198 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Binary snapshot of paths shown by the gallery, in the order they were shown. Snapshot is
+ * written when gallery is hidden and read when it's created, so the grid is filled in the first
+ * frame, before any scan or database query.
+ *
+ * Paths are front coded: every path is stored as length of the prefix shared with previous path
+ * and the remaining suffix. Paths of the same directory share almost whole prefix, so snapshot is
+ * only slightly larger than file names themselves.
+ */
+
+public class GallerySnapshot {
+
+    private final static String DEBUG_TAG = "GallerySnapshot";
+    private static final boolean LOCAL_LOG = false;
+
+    private static final String FILE_NAME = "gallery.snapshot";
+    private static final int MAGIC = 0x47534e31;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Snapshot with more paths is considered corrupted
+     */
+    private static final int MAX_COUNT = 1024 * 1024;
+
+    /*
+     * Every instance writes through the same temporary file, so writes are serialized, otherwise
+     * concurrent writers would interleave their data in it
+     */
+    private static final Object WRITE_LOCK = new Object();
+
+    private final File file;
+
+    /**
+     * @param context Any context
+     */
+    public GallerySnapshot(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * @param file File storing the snapshot
+     */
+    public GallerySnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Read stored paths. Snapshot that cannot be read is deleted.
+     *
+     * @return Stored paths, empty list if there is no valid snapshot
+     */
+    public List<String> read() {
+        if (!file.exists()) return Collections.emptyList();
+
+        final long start = SystemClock.elapsedRealtime();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            if (in.readInt() != MAGIC) throw new IOException("Invalid magic");
+            final int count = in.readInt();
+            if (count < 0 || count > MAX_COUNT) throw new IOException("Invalid count: " + count);
+
+            final List<String> paths = new ArrayList<>(count);
+            String previous = "";
+            for (int i = 0; i < count; i++) {
+                final int prefixLength = in.readUnsignedShort();
+                if (prefixLength > previous.length()) throw new IOException("Invalid prefix");
+                previous = previous.substring(0, prefixLength) + in.readUTF();
+                paths.add(previous);
+            }
+            if (LOCAL_LOG) Log.d(DEBUG_TAG, "Read " + count + " paths in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            return paths;
+        } catch (IOException e) {
+            Log.w(DEBUG_TAG, "Cannot read snapshot", e);
+            file.delete();
+            return Collections.emptyList();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Replace stored snapshot with given paths. File is replaced atomically, so snapshot is never
+     * left half written. Concurrent writes are serialized, the last one wins. Must not be called
+     * on the main UI thread.
+     *
+     * @param paths Paths to store
+     * @return true if snapshot was written
+     */
+    public boolean write(List<String> paths) {
+        synchronized (WRITE_LOCK) {
+            return writeLocked(paths);
+        }
+    }
+
+    /*
+     * Write snapshot through the temporary file, must be called holding WRITE_LOCK
+     */
+    private boolean writeLocked(List<String> paths) {
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(paths.size());
+            String previous = "";
+            for (String path : paths) {
+                final int prefixLength = commonPrefixLength(previous, path);
+                out.writeShort(prefixLength);
+                out.writeUTF(path.substring(prefixLength));
+                previous = path;
+            }
+            out.close();
+            out = null;
+            return tmpFile.renameTo(file);
+        } catch (IOException e) {
+            Log.w(DEBUG_TAG, "Cannot write snapshot", e);
+            tmpFile.delete();
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Delete stored snapshot, e.g. when gallery is too large to be restored from it
+     */
+    public void delete() {
+        file.delete();
+    }
+
+    /*
+     * Length of the prefix shared by both strings, limited to range of unsigned short
+     */
+    private static int commonPrefixLength(String a, String b) {
+        final int max = Math.min(Math.min(a.length(), b.length()), 0xffff);
+        int length = 0;
+        while (length < max && a.charAt(length) == b.charAt(length)) {
+            length++;
+        }
+        return length;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.os.AsyncTask;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Watches scanned directory tree for changes made by other applications (e.g. camera taking new
+ * photo) and keeps GalleryIndex up to date without rescanning whole tree.
+ *
+ * FileObserver watches single directory only, so one observer is registered for every directory
+ * of the tree known to the index, observers are added and removed after every rescan. Events come
+ * in bursts (file is created, written and closed, or many files are copied at once), so they are
+ * coalesced: rescan starts when no event came for DEBOUNCE_MS, but not later than MAX_DELAY_MS
+ * after the first one. Rescan lists only directories that reported an event or changed their
+ * modification time, and changes are delivered to the listener on the main UI thread.
+ *
+ * Nothing is observed while the watcher is stopped, so every start rescans the tree. Only
+ * directories whose modification time changed are listed, so it costs one stat per directory.
+ */
+
+public class GalleryWatcher {
+
+    private final static String DEBUG_TAG = "GalleryWatcher";
+    private static final boolean LOCAL_LOG = false;
+
+    private static final int EVENT_MASK = FileObserver.CREATE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE
+            | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private static final long DEBOUNCE_MS = 500;
+    private static final long MAX_DELAY_MS = 2000;
+
+    /**
+     * Every observer uses inotify watch, number of which is limited system wide
+     */
+    private static final int MAX_WATCHED_DIRECTORIES = 1024;
+
+    /**
+     * Receives changes of the watched tree, on the main UI thread
+     */
+    public interface OnGalleryChangedListener {
+        void onGalleryChanged(List<String> addedPaths, List<String> removedPaths);
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final GalleryIndex index;
+    private final File root;
+    private final OnGalleryChangedListener listener;
+
+    /*
+     * Observers by directory path, guarded by itself
+     */
+    private final Map<String, DirectoryObserver> observers = new HashMap<>();
+
+    /*
+     * Directories that reported events since last rescan, guarded by this
+     */
+    private Set<String> changedDirectories = new HashSet<>();
+    private long firstEventTime;
+    private boolean watching;
+
+    private final Runnable rescanRunnable = new Runnable() {
+        @Override
+        public void run() {
+            rescan();
+        }
+    };
+
+    /**
+     * @param index Index of the watched tree
+     * @param root Root of the watched tree
+     * @param listener Listener receiving changes of the tree
+     */
+    public GalleryWatcher(GalleryIndex index, File root, OnGalleryChangedListener listener) {
+        this.index = index;
+        this.root = root;
+        this.listener = listener;
+    }
+
+    /**
+     * Start watching directories known to the index, and rescan directories changed while the
+     * watcher was stopped
+     */
+    public void start() {
+        synchronized (this) {
+            if (watching) return;
+            watching = true;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Observers first, so changes made during the rescan are not missed
+                updateObservers();
+                scanChanges(Collections.<String>emptySet());
+            }
+        });
+    }
+
+    /**
+     * Stop watching, changes pending for rescan are dropped. They will be found by the rescan
+     * done on next start, since they changed directories' modification time.
+     */
+    public void stop() {
+        synchronized (this) {
+            watching = false;
+            changedDirectories.clear();
+            firstEventTime = 0;
+        }
+        handler.removeCallbacks(rescanRunnable);
+        synchronized (observers) {
+            for (DirectoryObserver observer : observers.values()) {
+                observer.stopWatching();
+            }
+            observers.clear();
+        }
+    }
+
+    /*
+     * Called on observer's thread, schedules rescan
+     */
+    private void onDirectoryChanged(String directory) {
+        final long delay;
+        synchronized (this) {
+            if (!watching) return;
+            changedDirectories.add(directory);
+            final long now = SystemClock.elapsedRealtime();
+            if (firstEventTime == 0) firstEventTime = now;
+            delay = Math.max(0, Math.min(DEBOUNCE_MS, firstEventTime + MAX_DELAY_MS - now));
+        }
+        handler.removeCallbacks(rescanRunnable);
+        handler.postDelayed(rescanRunnable, delay);
+    }
+
+    /*
+     * Rescan changed directories off the main UI thread
+     */
+    private void rescan() {
+        final Set<String> directories;
+        synchronized (this) {
+            if (!watching || changedDirectories.isEmpty()) return;
+            directories = changedDirectories;
+            changedDirectories = new HashSet<>();
+            firstEventTime = 0;
+        }
+        if (LOCAL_LOG) Log.d(DEBUG_TAG, "Rescanning after changes in " + directories.size()
+                + " directories");
+
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                scanChanges(directories);
+            }
+        });
+    }
+
+    /*
+     * Scan the tree, listing given directories and the ones whose modification time changed,
+     * and deliver found changes to the listener. Called off the main UI thread.
+     */
+    private void scanChanges(Set<String> directories) {
+        synchronized (this) {
+            if (!watching) return;
+        }
+        final List<String> addedPaths = Collections.synchronizedList(new ArrayList<String>());
+        final GalleryScanner scanner = new GalleryScanner(index);
+        scanner.setChangedDirectories(directories);
+        final List<String> removedPaths = scanner.scan(root,
+                new DirectoryWalker.OnImageFoundListener() {
+                    @Override
+                    public void onImageFound(File file) {
+                        addedPaths.add(file.getAbsolutePath());
+                    }
+                });
+        updateObservers();
+
+        if (addedPaths.isEmpty() && removedPaths.isEmpty()) return;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (GalleryWatcher.this) {
+                    if (!watching) return;
+                }
+                listener.onGalleryChanged(addedPaths, removedPaths);
+            }
+        });
+    }
+
+    /*
+     * Watch every directory of the tree known to the index, stop watching removed ones
+     */
+    private void updateObservers() {
+        final Set<String> directories = new HashSet<>(index.getDirectories().keySet());
+        directories.add(root.getAbsolutePath());
+
+        synchronized (observers) {
+            synchronized (this) {
+                if (!watching) return;
+            }
+            final Iterator<Map.Entry<String, DirectoryObserver>> iterator =
+                    observers.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, DirectoryObserver> entry = iterator.next();
+                if (!directories.remove(entry.getKey())) {
+                    entry.getValue().stopWatching();
+                    iterator.remove();
+                }
+            }
+            for (String directory : directories) {
+                if (observers.size() >= MAX_WATCHED_DIRECTORIES) {
+                    Log.w(DEBUG_TAG, "Too many directories, not all of them are watched");
+                    break;
+                }
+                final DirectoryObserver observer = new DirectoryObserver(directory);
+                observer.startWatching();
+                observers.put(directory, observer);
+            }
+            if (LOCAL_LOG) Log.d(DEBUG_TAG, "Watching " + observers.size() + " directories");
+        }
+    }
+
+    /*
+     * Observer of single directory
+     */
+    private class DirectoryObserver extends FileObserver {
+
+        private final String directory;
+
+        DirectoryObserver(String directory) {
+            super(directory, EVENT_MASK);
+            this.directory = directory;
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            // Also drops events telling that observer was removed
+            if ((event & EVENT_MASK) == 0) return;
+
+            if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+                // Directory is gone, its parent has to be listed again
+                final String parent = new File(directory).getParent();
+                if (parent != null) onDirectoryChanged(parent);
+            } else {
+                onDirectoryChanged(directory);
+            }
+        }
+    }
+}
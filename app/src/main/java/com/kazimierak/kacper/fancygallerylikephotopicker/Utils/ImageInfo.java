@@ -0,0 +1,102 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Immutable metadata of an image read from its header: dimensions, mime type and EXIF
+ * orientation. Probing header once and sharing this record lets PhotoLoader and PhotoScaler skip
+ * repeated bounds decodes of the same file.
+ */
+
+public final class ImageInfo {
+
+    /**
+     * Orientation of images without EXIF orientation tag, same as ExifInterface.ORIENTATION_UNDEFINED
+     */
+    public static final int ORIENTATION_UNDEFINED = 0;
+
+    private final int width;
+    private final int height;
+    private final String mimeType;
+    private final int orientation;
+    private final int thumbnailOffset;
+    private final int thumbnailLength;
+
+    /**
+     * @param width Width of the image in pixels
+     * @param height Height of the image in pixels
+     * @param mimeType Mime type reported by decoder, may be null
+     * @param orientation EXIF orientation, one of ExifInterface.ORIENTATION_* values
+     */
+    public ImageInfo(int width, int height, String mimeType, int orientation) {
+        this(width, height, mimeType, orientation, 0, 0);
+    }
+
+    /**
+     * @param width Width of the image in pixels
+     * @param height Height of the image in pixels
+     * @param mimeType Mime type reported by decoder, may be null
+     * @param orientation EXIF orientation, one of ExifInterface.ORIENTATION_* values
+     * @param thumbnailOffset Offset of embedded EXIF thumbnail from the beginning of the file
+     * @param thumbnailLength Byte length of embedded EXIF thumbnail, 0 if there is none
+     */
+    public ImageInfo(int width, int height, String mimeType, int orientation,
+                     int thumbnailOffset, int thumbnailLength) {
+        this.width = width;
+        this.height = height;
+        this.mimeType = mimeType;
+        this.orientation = orientation;
+        this.thumbnailOffset = thumbnailOffset;
+        this.thumbnailLength = thumbnailLength;
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    public String getMimeType() { return mimeType; }
+
+    public int getOrientation() { return orientation; }
+
+    public int getThumbnailOffset() { return thumbnailOffset; }
+
+    public int getThumbnailLength() { return thumbnailLength; }
+
+    /**
+     * @return true if JPEG thumbnail is embedded in EXIF data of the image
+     */
+    public boolean hasThumbnail() { return thumbnailLength > 0; }
+
+    /**
+     * @return true if image is JPEG
+     */
+    public boolean isJpeg() { return "image/jpeg".equals(mimeType); }
+
+    @Override
+    public String toString() {
+        return "ImageInfo{" + width + "x" + height + ", " + mimeType + ", orientation " + orientation + "}";
+    }
+}
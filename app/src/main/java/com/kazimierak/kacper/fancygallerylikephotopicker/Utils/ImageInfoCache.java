@@ -0,0 +1,87 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.util.LruCache;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Small in-memory cache of image headers, so rebinding a cell does not read the header of the
+ * photo again. Entries are keyed by photo path and should be removed when the photo changes.
+ */
+
+public class ImageInfoCache {
+
+    /**
+     * Maximal number of cached headers, records are tiny so it covers several screens of grid
+     */
+    private static final int MAX_ENTRIES = 2048;
+
+    private static ImageInfoCache instance;
+
+    private final LruCache<String, ImageInfo> cache;
+
+    /**
+     * @param maxEntries Maximal number of cached headers
+     */
+    public ImageInfoCache(int maxEntries) {
+        cache = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * Get cache shared by whole application
+     *
+     * @return Shared image info cache instance
+     */
+    public static synchronized ImageInfoCache getInstance() {
+        if (instance == null) {
+            instance = new ImageInfoCache(MAX_ENTRIES);
+        }
+        return instance;
+    }
+
+    /**
+     * @param path Path to the photo
+     * @return Cached header of the photo, or null if header was not read yet
+     */
+    public ImageInfo get(String path) {
+        return cache.get(path);
+    }
+
+    public void put(String path, ImageInfo info) {
+        if (path != null && info != null) {
+            cache.put(path, info);
+        }
+    }
+
+    /**
+     * Remove header of the photo, e.g. when photo was modified or deleted
+     *
+     * @param path Path to the photo
+     */
+    public void remove(String path) {
+        cache.remove(path);
+    }
+}
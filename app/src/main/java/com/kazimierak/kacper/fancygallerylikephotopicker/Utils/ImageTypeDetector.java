@@ -0,0 +1,214 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.os.Build;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Detects image files by signature stored in first bytes of the file (so called magic bytes),
+ * without passing them to BitmapFactory. Scanning folders with thousands of videos and sidecar
+ * files this way reads only few bytes of every file.
+ *
+ * Detector reuses single buffer, so one instance must not be shared between threads.
+ */
+
+public class ImageTypeDetector {
+
+    /**
+     * Types of images recognized by the detector, all of them can be decoded by BitmapFactory
+     * (HEIF since Android P)
+     */
+    public enum ImageType { JPEG, PNG, WEBP, GIF, BMP, HEIF }
+
+    /**
+     * First API level which BitmapFactory decodes HEIF images on (Android P)
+     */
+    private static final int HEIF_DECODING_SDK = 28;
+
+    /**
+     * Number of bytes needed to recognize every supported signature, BMP needs whole file header
+     * and size of DIB header
+     */
+    private static final int SIGNATURE_LENGTH = 18;
+
+    /**
+     * Length of BMP file header, DIB header follows it
+     */
+    private static final int BMP_FILE_HEADER_LENGTH = 14;
+
+    private final byte[] buffer = new byte[SIGNATURE_LENGTH];
+
+    public ImageTypeDetector() {}
+
+    /**
+     * Detect type of the image stored in given file
+     *
+     * @param file File to check
+     * @return Type of the image, or null if file is not a supported image or cannot be read
+     */
+    public ImageType detect(File file) {
+        return detect(file, file.length());
+    }
+
+    /**
+     * Detect type of the image stored in given file, whose length the caller already knows
+     *
+     * @param file File to check
+     * @param fileLength Length of the file, or -1 if unknown
+     * @return Type of the image, or null if file is not a supported image or cannot be read
+     */
+    public ImageType detect(File file, long fileLength) {
+        final int length = readSignature(file);
+        return length > 0 ? detect(buffer, length, fileLength) : null;
+    }
+
+    /**
+     * @param file File to check
+     * @return true if file is an image that can be decoded on this device
+     */
+    public boolean isImage(File file) {
+        return isImage(file, file.length());
+    }
+
+    /**
+     * @param file File to check
+     * @param fileLength Length of the file, or -1 if unknown
+     * @return true if file is an image that can be decoded on this device
+     */
+    public boolean isImage(File file, long fileLength) {
+        final ImageType type = detect(file, fileLength);
+        return type != null
+                && (type != ImageType.HEIF || Build.VERSION.SDK_INT >= HEIF_DECODING_SDK);
+    }
+
+    /**
+     * Detect type of the image from bytes at the beginning of the file
+     *
+     * @param data Bytes from the beginning of the file
+     * @param length Number of valid bytes in data
+     * @return Type of the image, or null if bytes do not match any supported signature
+     */
+    public static ImageType detect(byte[] data, int length) {
+        return detect(data, length, -1);
+    }
+
+    /**
+     * Detect type of the image from bytes at the beginning of the file
+     *
+     * @param data Bytes from the beginning of the file
+     * @param length Number of valid bytes in data
+     * @param fileLength Length of the whole file, or -1 if unknown
+     * @return Type of the image, or null if bytes do not match any supported signature
+     */
+    public static ImageType detect(byte[] data, int length, long fileLength) {
+        if (length >= 3 && u(data[0]) == 0xFF && u(data[1]) == 0xD8 && u(data[2]) == 0xFF) {
+            return ImageType.JPEG;
+        }
+        if (length >= 8 && u(data[0]) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G'
+                && data[4] == 0x0D && data[5] == 0x0A && data[6] == 0x1A && data[7] == 0x0A) {
+            return ImageType.PNG;
+        }
+        if (length >= 6 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F' && data[3] == '8'
+                && (data[4] == '7' || data[4] == '9') && data[5] == 'a') {
+            return ImageType.GIF;
+        }
+        if (length >= 12 && data[0] == 'R' && data[1] == 'I' && data[2] == 'F' && data[3] == 'F'
+                && data[8] == 'W' && data[9] == 'E' && data[10] == 'B' && data[11] == 'P') {
+            return ImageType.WEBP;
+        }
+        if (length >= 18 && data[0] == 'B' && data[1] == 'M' && isBmpHeader(data, fileLength)) {
+            return ImageType.BMP;
+        }
+        if (length >= 12 && data[4] == 'f' && data[5] == 't' && data[6] == 'y' && data[7] == 'p'
+                && isHeifBrand(data)) {
+            return ImageType.HEIF;
+        }
+        return null;
+    }
+
+    /*
+     * Many files start with "BM", BMP is accepted only if sizes in its headers are consistent
+     */
+    private static boolean isBmpHeader(byte[] data, long fileLength) {
+        final long fileSize = readIntLittleEndian(data, 2);
+        final long pixelOffset = readIntLittleEndian(data, 10);
+        final long dibHeaderSize = readIntLittleEndian(data, 14);
+        if (dibHeaderSize != 12 && dibHeaderSize != 40 && dibHeaderSize != 52
+                && dibHeaderSize != 56 && dibHeaderSize != 64 && dibHeaderSize != 108
+                && dibHeaderSize != 124) {
+            return false;
+        }
+        final long headersSize = BMP_FILE_HEADER_LENGTH + dibHeaderSize;
+        return fileSize >= headersSize && pixelOffset >= headersSize
+                && (fileLength < 0 || fileSize <= fileLength);
+    }
+
+    private static long readIntLittleEndian(byte[] data, int offset) {
+        return u(data[offset]) | u(data[offset + 1]) << 8 | u(data[offset + 2]) << 16
+                | (long) u(data[offset + 3]) << 24;
+    }
+
+    /*
+     * ISO base media files share ftyp box with videos, only image brands are accepted
+     */
+    private static boolean isHeifBrand(byte[] data) {
+        final String brand = new String(new char[] {
+                (char) data[8], (char) data[9], (char) data[10], (char) data[11]});
+        return "heic".equals(brand) || "heix".equals(brand) || "mif1".equals(brand)
+                || "msf1".equals(brand) || "heim".equals(brand) || "heis".equals(brand);
+    }
+
+    private int readSignature(File file) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int length = 0;
+            int read;
+            while (length < buffer.length
+                    && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            return length;
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static int u(byte b) {
+        return b & 0xFF;
+    }
+}
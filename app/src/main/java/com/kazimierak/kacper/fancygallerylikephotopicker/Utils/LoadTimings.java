@@ -0,0 +1,95 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Measures how fast the gallery becomes usable: time until first batch of scanned photos is shown,
+ * time until first thumbnail is shown and time until the whole scan is finished. All times are
+ * measured from the start of the scan and logged once per scan.
+ *
+ * Must be used on the main UI thread.
+ */
+
+public class LoadTimings {
+
+    private final static String DEBUG_TAG = "LoadTimings";
+    private static final boolean LOCAL_LOG = false;
+
+    private static long scanStart;
+    private static boolean firstBatchShown;
+    private static boolean firstThumbnailShown;
+
+    private LoadTimings() {}
+
+    /**
+     * Start measuring, called when the scan starts
+     */
+    public static void markScanStarted() {
+        scanStart = SystemClock.elapsedRealtime();
+        firstBatchShown = false;
+        firstThumbnailShown = false;
+    }
+
+    /**
+     * Called when batch of scanned photos was added to the grid
+     *
+     * @param count Number of photos in the batch
+     */
+    public static void markBatchShown(int count) {
+        if (!firstBatchShown && scanStart != 0) {
+            firstBatchShown = true;
+            log("First batch of " + count + " photos");
+        }
+    }
+
+    /**
+     * Called when thumbnail was set on grid cell
+     */
+    public static void markThumbnailShown() {
+        if (!firstThumbnailShown && scanStart != 0) {
+            firstThumbnailShown = true;
+            log("First thumbnail");
+        }
+    }
+
+    /**
+     * Called when the scan is finished
+     *
+     * @param count Number of found photos
+     */
+    public static void markScanFinished(int count) {
+        if (scanStart != 0) {
+            log("Scan finished, " + count + " photos");
+        }
+    }
+
+    private static void log(String event) {
+        if (LOCAL_LOG) Log.d(DEBUG_TAG, event + ": " + (SystemClock.elapsedRealtime() - scanStart) + " ms");
+    }
+}
@@ -2,7 +2,17 @@ package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 
 
 /**
@@ -38,6 +48,64 @@ import android.util.Log;
 
 public class PhotoLoader {
 
+    private final static String DEBUG_TAG = "PhotoLoader";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Image is sampled by power of 2 down to at least the requested size, decoded bitmap may be
+     * up to twice as large as requested in both dimensions
+     */
+    public static final int SCALE_MODE_SAMPLE = 0;
+
+    /**
+     * Image is decoded to exactly fit inside requested size, keeping its aspect ratio
+     */
+    public static final int SCALE_MODE_FIT = 1;
+
+    /**
+     * Image is decoded to exactly cover requested size and center-cropped to it
+     */
+    public static final int SCALE_MODE_CROP = 2;
+
+    /**
+     * Embedded thumbnail with aspect ratio differing from the photo more than this fraction is
+     * letterboxed, it's not used
+     */
+    private static final float MAX_THUMBNAIL_ASPECT_DIFFERENCE = 0.05f;
+
+    /**
+     * Paint filtering bitmaps scaled while they are drawn, shared by decoding threads
+     */
+    private static final Paint SCALE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * Average decode times are logged after this number of decodes
+     */
+    private static final int DECODE_LOG_INTERVAL = 50;
+
+    /*
+     * Decode statistics of embedded thumbnails and sampled photos, guarded by PhotoLoader.class
+     */
+    private static int thumbnailDecodeCount;
+    private static long thumbnailDecodeMillis;
+    private static int sampledDecodeCount;
+    private static long sampledDecodeMillis;
+
+    /**
+     * Number of bytes read from the beginning of file to get image header
+     */
+    private static final int HEADER_BUFFER_SIZE = 64 * 1024;
+
+    /*
+     * Header buffer reused by every decoding thread
+     */
+    private static final ThreadLocal<byte[]> HEADER_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[HEADER_BUFFER_SIZE];
+        }
+    };
+
     public PhotoLoader() {}
 
     /**
@@ -52,21 +120,91 @@ public class PhotoLoader {
         @return true if bitmap is greater than screen dimensions
      */
     public boolean isPhotoGreaterThanScreen(String path, int screenWidth, int screenHeight, int scaleFactor) {
+        final ImageInfo info = readImageInfo(path);
+        return info != null && isPhotoGreaterThanScreen(info, screenWidth, screenHeight, scaleFactor);
+    }
+
+    /**
+     Method checking if image described by given header is significantly larger than device screen.
+
+     @param info Header of the image
+     @param screenWidth The width of device screen
+     @param screenHeight The height of device screen
+     @param scaleFactor The size factor which multiply screen sizes.
+
+     @return true if image is greater than screen dimensions
+     */
+    public boolean isPhotoGreaterThanScreen(ImageInfo info, int screenWidth, int screenHeight, int scaleFactor) {
+        return ((info.getHeight() * info.getWidth()) > (scaleFactor * (screenWidth * screenHeight)));
+    }
+
+    /**
+     * Read header of the image: dimensions, mime type and EXIF orientation. Headers are cached, so
+     * the file is read only once.
+     *
+     * @param imagePath Path to the image
+     * @return Header of the image, or null if file is not an image that can be decoded
+     */
+    public ImageInfo readImageInfo(String imagePath) {
+        final ImageInfoCache cache = ImageInfoCache.getInstance();
+        ImageInfo info = cache.get(imagePath);
+        if (info == null) {
+            info = probe(imagePath);
+            cache.put(imagePath, info);
+        }
+        return info;
+    }
+
+    /*
+     * Read beginning of the file once, and decode bounds and EXIF orientation from these bytes
+     */
+    private ImageInfo probe(String imagePath) {
+        final byte[] header = HEADER_BUFFER.get();
+        final int length = readHeader(imagePath, header);
+        if (length <= 0) return null;
+
         final BitmapFactory.Options options = new BitmapFactory.Options();
-        // True to check dimensions
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(path, options);
+        BitmapFactory.decodeByteArray(header, 0, length, options);
+        if ((options.outWidth <= 0 || options.outHeight <= 0) && length == header.length) {
+            // Image header does not fit in the buffer, e.g. JPEG with large APP segments
+            BitmapFactory.decodeFile(imagePath, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
 
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        // TODO
+        if (!"image/jpeg".equals(options.outMimeType)) {
+            return new ImageInfo(options.outWidth, options.outHeight, options.outMimeType,
+                    ImageInfo.ORIENTATION_UNDEFINED);
+        }
+        final int orientation = ExifReader.readOrientation(header, length);
+        final long thumbnail = ExifReader.findThumbnail(header, length);
+        return new ImageInfo(options.outWidth, options.outHeight, options.outMimeType, orientation,
+                thumbnail < 0 ? 0 : (int) (thumbnail >>> 32), thumbnail < 0 ? 0 : (int) thumbnail);
+    }
 
-        if (((height*width) > (scaleFactor*(screenWidth*screenHeight)))){
-            options.inJustDecodeBounds = false;
-            return true;
-        } else {
-            options.inJustDecodeBounds = false;
-            return false;
+    /*
+     * Read beginning of the file into buffer, returns number of bytes read
+     */
+    private static int readHeader(String imagePath, byte[] buffer) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(imagePath);
+            int length = 0;
+            int read;
+            while (length < buffer.length
+                    && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            return length;
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
     }
 
@@ -124,28 +262,291 @@ public class PhotoLoader {
      * @return decoded and scaled bitmap
      */
     public Bitmap decodePhoto(String imagePath, int screenWidth, int screenHeight) {
-        Bitmap tempBitmap;
-
-        if (isPhotoGreaterThanScreen(imagePath, screenWidth, screenHeight)) {
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            PhotoScaler scaler = new PhotoScaler();
+        return decodePhoto(imagePath, screenWidth, screenHeight, new BitmapFactory.Options());
+    }
 
-            // True to check dimensions
-            options.inJustDecodeBounds = true;
+    /**
+     * Decode bitmap from given path, adjusted to device screen size. Decoding can be cancelled
+     * from another thread by calling options.requestCancelDecode(), it's checked between the
+     * bounds pass and the pixel pass, and stops the pixel pass in progress.
+     *
+     * @param imagePath Path to resource to be decoded
+     * @param screenWidth The width of device screen
+     * @param screenHeight The height of device screen
+     * @param options Fresh options used by all decode passes, kept by caller to cancel decoding
+     *
+     * @return decoded and scaled bitmap, or null if decoding was cancelled
+     */
+    public Bitmap decodePhoto(String imagePath, int screenWidth, int screenHeight,
+                              BitmapFactory.Options options) {
+        return decodePhoto(imagePath, screenWidth, screenHeight, SCALE_MODE_SAMPLE, options);
+    }
 
-            //Just calculate dimensions
-            BitmapFactory.decodeFile(imagePath,options);
+    /**
+     * Decode bitmap from given path, scaled to requested size in given mode. In exact modes
+     * sampling is combined with density scaling since KitKat, so the decoder produces bitmap of
+     * requested size without scaling it again. Older decoders only sample, bitmap is scaled
+     * while it's drawn into the result. Decoding can be cancelled like in
+     * {@link #decodePhoto(String, int, int, BitmapFactory.Options)}.
+     *
+     * @param imagePath Path to resource to be decoded
+     * @param reqWidth Requested width
+     * @param reqHeight Requested height
+     * @param scaleMode One of SCALE_MODE_SAMPLE, SCALE_MODE_FIT, SCALE_MODE_CROP
+     * @param options Fresh options used by all decode passes, kept by caller to cancel decoding
+     *
+     * @return decoded and scaled bitmap, or null if decoding was cancelled
+     */
+    @SuppressWarnings("deprecation")
+    public Bitmap decodePhoto(String imagePath, int reqWidth, int reqHeight, int scaleMode,
+                              BitmapFactory.Options options) {
+        // Header is probed once and cached, so bounds are not decoded again on rebinding
+        final ImageInfo info = readImageInfo(imagePath);
+        if (options.mCancel) return null;
+        if (info == null) throw new NullPointerException("Bitmap decoded from path is null" + imagePath);
+
+        final long start = SystemClock.elapsedRealtime();
+        if (info.hasThumbnail()) {
+            final Bitmap thumbnail = decodeEmbeddedThumbnail(imagePath, info, reqWidth,
+                    reqHeight, scaleMode, options);
+            if (thumbnail != null) {
+                recordDecode(true, SystemClock.elapsedRealtime() - start);
+                return finishScaling(thumbnail, reqWidth, reqHeight, scaleMode);
+            }
+            if (options.mCancel) return null;
+        }
 
+        PhotoScaler scaler = new PhotoScaler();
+        if (scaleMode != SCALE_MODE_SAMPLE) {
+            scaler.setExactScale(options, info.getWidth(), info.getHeight(), reqWidth, reqHeight,
+                    scaleMode == SCALE_MODE_CROP);
+        } else if (isPhotoGreaterThanScreen(info, reqWidth, reqHeight, 1)) {
             //Calc. inSampleSize
-            options.inSampleSize = scaler.calculateInSampleSize(options, screenWidth, screenHeight);
-            //Now decode the full bitmap
-            options.inJustDecodeBounds = false;
-            tempBitmap = BitmapFactory.decodeFile(imagePath, options);
-        } else {
-            tempBitmap = BitmapFactory.decodeFile(imagePath);
+            options.inSampleSize = scaler.calculateInSampleSize(info, reqWidth, reqHeight);
         }
+        //Now decode the full bitmap, reusing memory of pooled bitmap if possible
+        final Bitmap tempBitmap = decodeReusingBitmap(imagePath, null, 0,
+                info.getWidth(), info.getHeight(), options);
+        if (options.mCancel) return null;
         if (tempBitmap == null) throw new NullPointerException("Bitmap decoded from path is null" + imagePath);
-        else return tempBitmap;
+        recordDecode(false, SystemClock.elapsedRealtime() - start);
+        return finishScaling(tempBitmap, reqWidth, reqHeight, scaleMode);
+    }
+
+    /*
+     * Drop density of bitmap decoded in exact mode, so it's not scaled again when drawn, and bring
+     * it to requested size
+     */
+    private Bitmap finishScaling(Bitmap bitmap, int reqWidth, int reqHeight, int scaleMode) {
+        if (scaleMode == SCALE_MODE_SAMPLE) return bitmap;
+        bitmap.setDensity(Bitmap.DENSITY_NONE);
+        return drawScaled(bitmap, reqWidth, reqHeight, scaleMode == SCALE_MODE_CROP);
+    }
+
+    /*
+     * Draw bitmap scaled to fit inside, or cover and be center-cropped to, requested size into
+     * bitmap of that size, in single draw. Drawn bitmap goes back to the pool. Bitmap smaller
+     * than requested size is not scaled up, bitmap that already has the size is returned as is.
+     *
+     * Since KitKat decoder has already scaled the bitmap, so only crop mode draws, into bitmap
+     * taken from the pool, which is allocated only when the pool has none. Before KitKat nothing
+     * is pooled, the result is the second allocation of every exact decode, which replaces the
+     * copy made by the decoder's own density scaling.
+     */
+    private Bitmap drawScaled(Bitmap bitmap, int reqWidth, int reqHeight, boolean crop) {
+        final int bitmapWidth = bitmap.getWidth();
+        final int bitmapHeight = bitmap.getHeight();
+        final float widthRatio = (float) reqWidth / bitmapWidth;
+        final float heightRatio = (float) reqHeight / bitmapHeight;
+        final float scale = Math.min(1,
+                crop ? Math.max(widthRatio, heightRatio) : Math.min(widthRatio, heightRatio));
+        int width = Math.max(1, Math.round(bitmapWidth * scale));
+        int height = Math.max(1, Math.round(bitmapHeight * scale));
+        if (crop) {
+            width = Math.min(reqWidth, width);
+            height = Math.min(reqHeight, height);
+        }
+        if (width == bitmapWidth && height == bitmapHeight) return bitmap;
+
+        final Bitmap.Config config = bitmap.getConfig() != null
+                ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        final BitmapPool pool = BitmapPool.getInstance();
+        Bitmap result = null;
+        // Pooled bitmap of other dimensions can be reconfigured since KitKat
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            result = pool.get(width, height, config);
+            if (result != null) {
+                result.reconfigure(width, height, config);
+                if (bitmap.hasAlpha()) result.eraseColor(Color.TRANSPARENT);
+            }
+        }
+        if (result == null) result = Bitmap.createBitmap(width, height, config);
+        result.setDensity(Bitmap.DENSITY_NONE);
+
+        // Center of the bitmap covered by the result
+        final int sourceWidth = Math.min(bitmapWidth, Math.round(width / scale));
+        final int sourceHeight = Math.min(bitmapHeight, Math.round(height / scale));
+        final int left = (bitmapWidth - sourceWidth) / 2;
+        final int top = (bitmapHeight - sourceHeight) / 2;
+        new Canvas(result).drawBitmap(bitmap,
+                new Rect(left, top, left + sourceWidth, top + sourceHeight),
+                new Rect(0, 0, width, height), scale < 1 ? SCALE_PAINT : null);
+        pool.put(bitmap);
+        return result;
+    }
+
+    /*
+     * Decode JPEG thumbnail embedded in EXIF data, reading only its bytes from the file. Returns
+     * null if thumbnail cannot be read, is smaller than requested size or letterboxed.
+     */
+    private Bitmap decodeEmbeddedThumbnail(String imagePath, ImageInfo info, int reqWidth,
+                                           int reqHeight, int scaleMode,
+                                           BitmapFactory.Options options) {
+        final int length = info.getThumbnailLength();
+        final byte[] buffer = HEADER_BUFFER.get();
+        // Whole APP1 segment is at most 64 KiB long
+        if (length > buffer.length
+                || !readRange(imagePath, info.getThumbnailOffset(), buffer, length)) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(buffer, 0, length, options);
+        options.inJustDecodeBounds = false;
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+        if (options.mCancel || width < reqWidth || height < reqHeight) return null;
+
+        final long photoRatio = (long) info.getWidth() * height;
+        final long thumbnailRatio = (long) width * info.getHeight();
+        if (Math.abs(photoRatio - thumbnailRatio) > MAX_THUMBNAIL_ASPECT_DIFFERENCE * photoRatio) {
+            return null;
+        }
+        if (scaleMode != SCALE_MODE_SAMPLE) {
+            new PhotoScaler().setExactScale(options, width, height, reqWidth, reqHeight,
+                    scaleMode == SCALE_MODE_CROP);
+        }
+        return decodeReusingBitmap(null, buffer, length, width, height, options);
+    }
+
+    /*
+     * Read given range of the file into the beginning of buffer
+     */
+    private static boolean readRange(String imagePath, int offset, byte[] buffer, int length) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(imagePath, "r");
+            file.seek(offset);
+            file.readFully(buffer, 0, length);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /*
+     * Add decode time to statistics, averages are logged periodically
+     */
+    private static synchronized void recordDecode(boolean embeddedThumbnail, long millis) {
+        if (embeddedThumbnail) {
+            thumbnailDecodeCount++;
+            thumbnailDecodeMillis += millis;
+        } else {
+            sampledDecodeCount++;
+            sampledDecodeMillis += millis;
+        }
+        if (LOCAL_LOG && (thumbnailDecodeCount + sampledDecodeCount) % DECODE_LOG_INTERVAL == 0) {
+            Log.d(DEBUG_TAG, "Average decode time, embedded thumbnail: "
+                    + (thumbnailDecodeCount > 0 ? thumbnailDecodeMillis / thumbnailDecodeCount : 0)
+                    + " ms (" + thumbnailDecodeCount + "), sampled photo: "
+                    + (sampledDecodeCount > 0 ? sampledDecodeMillis / sampledDecodeCount : 0)
+                    + " ms (" + sampledDecodeCount + ")");
+        }
+    }
+
+    /**
+     * Decode whole file, e.g. pre-scaled thumbnail, into pooled bitmap of sufficient size if
+     * there is any. File that fits into header buffer is read only once.
+     *
+     * @param imagePath Path to the file
+     * @return Decoded bitmap, or null if file cannot be decoded
+     */
+    public Bitmap decodeFileReusingBitmap(String imagePath) {
+        final byte[] buffer = HEADER_BUFFER.get();
+        final int length = readHeader(imagePath, buffer);
+        if (length <= 0) return null;
+        final boolean wholeFile = length < buffer.length;
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (wholeFile) {
+            BitmapFactory.decodeByteArray(buffer, 0, length, options);
+        } else {
+            BitmapFactory.decodeFile(imagePath, options);
+        }
+        options.inJustDecodeBounds = false;
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        return decodeReusingBitmap(wholeFile ? null : imagePath, buffer, length,
+                options.outWidth, options.outHeight, options);
+    }
+
+    /**
+     * Decode bitmap into pooled bitmap of sufficient size, if there is any.
+     *
+     * @param imagePath Path to resource to be decoded, or null to decode data
+     * @param data Encoded image, used when imagePath is null
+     * @param length Number of bytes of encoded image in data
+     * @param width Width of the image before sampling
+     * @param height Height of the image before sampling
+     * @param options Options with sample size and density scaling
+     * @return Decoded bitmap, or null if image cannot be decoded
+     */
+    private Bitmap decodeReusingBitmap(String imagePath, byte[] data, int length, int width,
+                                       int height, BitmapFactory.Options options) {
+        final BitmapPool pool = BitmapPool.getInstance();
+        Bitmap reusedBitmap = null;
+        if (BitmapPool.isReuseSupported()) {
+            final int sampleSize = Math.max(1, options.inSampleSize);
+            // Decoder rounds sampled dimensions up, so pooled bitmap must fit rounded values
+            int decodedWidth = (width + sampleSize - 1) / sampleSize;
+            int decodedHeight = (height + sampleSize - 1) / sampleSize;
+            if (options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0) {
+                final float scale = (float) options.inTargetDensity / options.inDensity;
+                decodedWidth = (int) (decodedWidth * scale + 0.5f);
+                decodedHeight = (int) (decodedHeight * scale + 0.5f);
+            }
+            reusedBitmap = pool.get(decodedWidth, decodedHeight, options.inPreferredConfig);
+            options.inMutable = true;
+            options.inBitmap = reusedBitmap;
+        }
+
+        Bitmap bitmap;
+        try {
+            bitmap = imagePath != null ? BitmapFactory.decodeFile(imagePath, options)
+                    : BitmapFactory.decodeByteArray(data, 0, length, options);
+        } catch (IllegalArgumentException e) {
+            // Pooled bitmap cannot hold this image, decode into new one
+            reusedBitmap = null;
+            options.inBitmap = null;
+            if (options.mCancel) return null;
+            bitmap = imagePath != null ? BitmapFactory.decodeFile(imagePath, options)
+                    : BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+        options.inBitmap = null;
+
+        if (bitmap != null) {
+            pool.recordDecode(reusedBitmap != null && bitmap == reusedBitmap);
+        } else if (reusedBitmap != null) {
+            pool.put(reusedBitmap);
+        }
+        return bitmap;
     }
 
     /**
@@ -164,7 +565,7 @@ public class PhotoLoader {
     public class PhotoScaler {
 
         private final static String DEBUG_TAG = "PhotoScaler";
-        private static final boolean LOCAL_LOG = true;
+        private static final boolean LOCAL_LOG = false;
 
         public PhotoScaler(){
         }
@@ -180,9 +581,24 @@ public class PhotoLoader {
          * larger than the requested height and width.
          */
         public int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-            //Height and width of the raw image
-            final int height = options.outHeight;
-            final int width = options.outWidth;
+            return calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        }
+
+        /**
+         * Calculates largest sample size value that is a power of 2 and keeps both height and width
+         * larger than the requested height and width.
+         *
+         * @param info Header of the image
+         * @param reqWidth Target width
+         * @param reqHeight Target Height
+         * @return Sample size value that is a power of 2 and keeps both height and width
+         * larger than the requested height and width.
+         */
+        public int calculateInSampleSize(ImageInfo info, int reqWidth, int reqHeight) {
+            return calculateInSampleSize(info.getWidth(), info.getHeight(), reqWidth, reqHeight);
+        }
+
+        private int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
             //Default sample size = 1
             int inSampleSize = 1;
             if((height > reqHeight) || (width >reqWidth)) {
@@ -199,6 +615,48 @@ public class PhotoLoader {
             return inSampleSize;
         }
 
+        /**
+         * Set sample size and density scaling of the options, so the decoder produces bitmap that
+         * exactly fits inside, or covers, requested size. Image is sampled by the largest power
+         * of 2 that keeps it larger than the result, and since KitKat scaled down the rest of the
+         * way while decoding, into the same bitmap. Older decoders scale by copying the decoded
+         * bitmap, so only sample size is set there and the caller scales the bitmap. Image
+         * smaller than the result is not scaled up.
+         *
+         * @param options Bitmap factory options
+         * @param width Width of the image
+         * @param height Height of the image
+         * @param reqWidth Target width
+         * @param reqHeight Target height
+         * @param cover true to cover requested size, so the result can be center-cropped to it,
+         *              false to fit inside it
+         */
+        public void setExactScale(BitmapFactory.Options options, int width, int height,
+                                  int reqWidth, int reqHeight, boolean cover) {
+            // Width limits the scale if its ratio is smaller when fitting, larger when covering
+            final boolean byWidth = cover == ((long) reqWidth * height >= (long) reqHeight * width);
+            final float ratio = byWidth ? (float) reqWidth / width : (float) reqHeight / height;
+            options.inSampleSize = 1;
+            options.inDensity = 0;
+            options.inTargetDensity = 0;
+            if (ratio >= 1) return;
+
+            final int targetWidth = Math.max(1, Math.round(width * ratio));
+            final int targetHeight = Math.max(1, Math.round(height * ratio));
+            options.inSampleSize = calculateInSampleSize(width, height, targetWidth, targetHeight);
+            // Decoder rounds sampled dimensions up
+            final int sampledBorder = byWidth
+                    ? (width + options.inSampleSize - 1) / options.inSampleSize
+                    : (height + options.inSampleSize - 1) / options.inSampleSize;
+            final int targetBorder = byWidth ? targetWidth : targetHeight;
+            if (sampledBorder > targetBorder
+                    && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                options.inScaled = true;
+                options.inDensity = sampledBorder;
+                options.inTargetDensity = targetBorder;
+            }
+        }
+
         /**
          * Decoded bitmap with given max longest border
          *
@@ -0,0 +1,204 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseIntArray;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Average colors of photos, shown instead of thumbnails while the grid is flung. Color is
+ * computed from a grid of pixels of every decoded thumbnail and stored in GalleryIndex in batches.
+ *
+ * Colors are kept in memory by hash of the photo path, in sorted arrays of ints, so lookups do
+ * not allocate and whole gallery takes 8 bytes per photo. Photos with colliding hashes share
+ * preview color, which is harmless for a preview.
+ */
+
+public class PreviewColors {
+
+    private final static String DEBUG_TAG = "PreviewColors";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Returned when photo has no preview color, computed colors are always opaque
+     */
+    public static final int NO_COLOR = 0;
+
+    /**
+     * Number of new colors stored in the index at once
+     */
+    private static final int FLUSH_COUNT = 64;
+
+    /**
+     * Colors are averaged from SAMPLE_GRID x SAMPLE_GRID pixels
+     */
+    private static final int SAMPLE_GRID = 4;
+
+    private static PreviewColors instance;
+
+    private final GalleryIndex index;
+
+    /*
+     * Colors by path hash, and colors not stored in the index yet, guarded by this
+     */
+    private final SparseIntArray colors = new SparseIntArray();
+    private Map<String, Integer> pending = new HashMap<>();
+    private boolean loaded;
+
+    private PreviewColors(GalleryIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Get colors shared by whole application
+     *
+     * @param context Any context, application context is retained
+     * @return Shared preview colors instance
+     */
+    public static synchronized PreviewColors getInstance(Context context) {
+        if (instance == null) {
+            instance = new PreviewColors(GalleryIndex.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * Read colors stored in the index, only the first call reads them. Must not be called on the
+     * main UI thread.
+     */
+    public void load() {
+        synchronized (this) {
+            if (loaded) return;
+            loaded = true;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        final ColorReader reader = new ColorReader();
+        index.readPreviewColors(reader);
+        // Sorted by hash, so colors are appended to the arrays in order
+        Arrays.sort(reader.entries, 0, reader.count);
+
+        synchronized (this) {
+            final boolean empty = colors.size() == 0;
+            for (int i = 0; i < reader.count; i++) {
+                final int hash = (int) (reader.entries[i] >> 32);
+                final int color = (int) reader.entries[i];
+                // Colors computed in the meantime are newer
+                if (empty) colors.append(hash, color);
+                else if (colors.get(hash, NO_COLOR) == NO_COLOR) colors.put(hash, color);
+            }
+        }
+        if (LOCAL_LOG) Log.d(DEBUG_TAG, "Loaded " + reader.count + " colors in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    /**
+     * @param path Path to the photo
+     * @return Preview color of the photo, or NO_COLOR if it's not known
+     */
+    public synchronized int get(String path) {
+        return colors.get(path.hashCode(), NO_COLOR);
+    }
+
+    /**
+     * Compute preview color of the photo from its thumbnail, if it's not known yet. Can be called
+     * on any thread.
+     *
+     * @param path Path to the photo
+     * @param thumbnail Decoded thumbnail of the photo
+     */
+    public void put(String path, Bitmap thumbnail) {
+        if (get(path) != NO_COLOR) return;
+        final int color = computeColor(thumbnail);
+        final boolean flush;
+        synchronized (this) {
+            colors.put(path.hashCode(), color);
+            pending.put(path, color);
+            flush = pending.size() >= FLUSH_COUNT;
+        }
+        if (flush) flush();
+    }
+
+    /**
+     * Store new colors in the index off the main UI thread
+     */
+    public void flush() {
+        final Map<String, Integer> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) return;
+            batch = pending;
+            pending = new HashMap<>();
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                index.setPreviewColors(batch);
+            }
+        });
+    }
+
+    /*
+     * Average of pixels in the middle of grid cells, always opaque
+     */
+    private static int computeColor(Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        int red = 0;
+        int green = 0;
+        int blue = 0;
+        for (int row = 0; row < SAMPLE_GRID; row++) {
+            for (int column = 0; column < SAMPLE_GRID; column++) {
+                final int pixel = bitmap.getPixel((2 * column + 1) * width / (2 * SAMPLE_GRID),
+                        (2 * row + 1) * height / (2 * SAMPLE_GRID));
+                red += (pixel >> 16) & 0xff;
+                green += (pixel >> 8) & 0xff;
+                blue += pixel & 0xff;
+            }
+        }
+        final int samples = SAMPLE_GRID * SAMPLE_GRID;
+        return 0xff000000 | (red / samples) << 16 | (green / samples) << 8 | (blue / samples);
+    }
+
+    /*
+     * Collects colors read from the index as path hash and color packed into long
+     */
+    private static class ColorReader implements GalleryIndex.OnPreviewColorReadListener {
+        long[] entries = new long[1024];
+        int count;
+
+        @Override
+        public void onPreviewColorRead(String path, int color) {
+            if (count == entries.length) entries = Arrays.copyOf(entries, count * 2);
+            entries[count++] = ((long) path.hashCode() << 32) | (color & 0xffffffffL);
+        }
+    }
+}
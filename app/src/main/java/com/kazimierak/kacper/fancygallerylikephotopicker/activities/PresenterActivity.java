@@ -1,18 +1,20 @@
 package com.kazimierak.kacper.fancygallerylikephotopicker.activities;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.util.DisplayMetrics;
 import android.widget.ImageView;
 
 import com.kazimierak.kacper.fancygallerylikephotopicker.R;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.BitmapLoaderTask;
 
 /**
  * Created by Kacperon 2016-05-29.
  */
 public class PresenterActivity extends AppCompatActivity {
 
+    private ImageView iv;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -21,10 +23,23 @@ public class PresenterActivity extends AppCompatActivity {
         Bundle extras = getIntent().getExtras();
         if (extras != null) {
             String path = extras.getString("path");
-            Bitmap photo = BitmapFactory.decodeFile(path);
-            ImageView iv = (ImageView) findViewById(R.id.imageView);
-            iv.setImageBitmap(photo);
+            iv = (ImageView) findViewById(R.id.imageView);
+            // Decode photo scaled to the screen, off the main UI thread
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            int size = Math.max(metrics.widthPixels, metrics.heightPixels);
+            new BitmapLoaderTask(iv, size).loadBitmap(this, path, iv, null);
         }
 
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (iv != null) {
+            // Shown bitmap is retained in BitmapPool, it can be reused once released
+            BitmapLoaderTask.cancelWork(iv);
+            BitmapLoaderTask.releaseBitmap(iv);
+            iv.setImageDrawable(null);
+        }
+    }
 }
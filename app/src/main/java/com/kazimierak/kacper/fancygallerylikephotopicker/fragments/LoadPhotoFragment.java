@@ -3,14 +3,13 @@ package com.kazimierak.kacper.fancygallerylikephotopicker.fragments;
 import android.app.Activity;
 import android.app.Fragment;
 import android.content.Context;
-import android.graphics.BitmapFactory;
-import android.media.MediaScannerConnection;
-import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 import android.view.ActionMode;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -20,10 +19,26 @@ import android.view.ViewGroup;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
 import com.kazimierak.kacper.fancygallerylikephotopicker.R;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.DecodeExecutor;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.DirectoryWalker;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.DiskThumbnailCache;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.FileDeleter;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.GalleryIndex;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.GalleryScanner;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.GallerySnapshot;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.GalleryWatcher;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.LoadTimings;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.PreviewColors;
+import com.kazimierak.kacper.fancygallerylikephotopicker.lists.DragSelectTouchListener;
 import com.kazimierak.kacper.fancygallerylikephotopicker.lists.GalleryRecyclerAdapter;
+import com.kazimierak.kacper.fancygallerylikephotopicker.lists.PagedPathSource;
+import com.kazimierak.kacper.fancygallerylikephotopicker.lists.PathListDiff;
+import com.kazimierak.kacper.fancygallerylikephotopicker.lists.ThumbnailPrefetcher;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by Kacper Kazimierak 2016-05-29.
@@ -55,6 +70,9 @@ import java.util.List;
  */
 public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapter.OnItemClickListener {
 
+    private final static String DEBUG_TAG = "LoadPhotoFragment";
+    private static final boolean LOCAL_LOG = false;
+
     /**
      * Maximal number of offscreen views to be held by recycler adapter (2 full rows by default)
      */
@@ -65,16 +83,35 @@ public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapte
      */
     private static final int GALLERY_COLS = 4;
 
+    /**
+     * Galleries with at least this number of photos are read from the index page by page instead
+     * of being held in memory, and are not stored in the snapshot
+     */
+    private static final int PAGED_MODE_MIN_ITEMS = 20000;
+
     private OnPhotoLoaded mCallback;
     private GalleryRecyclerAdapter rAdapter;
     private ActionMode actionMode;
     private ActionModeCallback actionModeCallback = new ActionModeCallback();
+    private DragSelectTouchListener dragSelectTouchListener;
 
     /**
      * Relative layout overlaying recyclerview that shows spinning progress bar
      */
     private RelativeLayout progressBarView;
 
+    /**
+     * Keeps the gallery up to date after the first scan, while fragment is visible
+     */
+    private GalleryWatcher galleryWatcher;
+    private boolean galleryScanned;
+    private boolean started;
+
+    /**
+     * Selected files are being deleted, actions of the selection are disabled until it's finished
+     */
+    private boolean deleting;
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -108,95 +145,289 @@ public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapte
             Initializing gallery preview
          */
         rAdapter.setOnItemClickListener(this);
+        rAdapter.setOnSelectionChangedListener(
+                new GalleryRecyclerAdapter.OnSelectionChangedListener() {
+                    @Override
+                    public void onSelectionChanged() {
+                        updateSelectionState();
+                    }
+                });
         galleryView.setAdapter(rAdapter);
         galleryView.getRecycledViewPool().setMaxRecycledViews(rAdapter.getItemViewType(0),
                 MAX_RECYCLED_PHOTO_COUNT);
         galleryView.setLayoutManager(layoutManager);
+        galleryView.addOnScrollListener(new VisibleRangeListener());
+        galleryView.addOnScrollListener(new ThumbnailPrefetcher(getActivity(), rAdapter));
+        dragSelectTouchListener = new DragSelectTouchListener(rAdapter,
+                new DragSelectTouchListener.OnDragSelectionListener() {
+                    @Override
+                    public void onDragSelectionChanged() {
+                        updateSelectionState();
+                    }
+                });
+        galleryView.addOnItemTouchListener(dragSelectTouchListener);
         prepareGallery();
 
         return mRelativeLayout;
     }
 
     /**
-     * Prepare files for gallery preview
+     * Prepare files for gallery preview. Photos shown last time are restored from the snapshot
+     * synchronously, so the grid is filled in the first frame. Then the storage is scanned for
+     * changes in the background, photos found by the scan are added to the adapter in batches
+     * while the scan is still running. When the scan is finished, adapter is reconciled with the
+     * index: missing photos are added and photos that no longer exist are removed.
+     *
+     * Large galleries are shown in paged mode, see startPagedGallery.
      */
     private void prepareGallery() {
         final String externalStoragePath = Environment.getExternalStorageDirectory() + "/" +
                 Environment.DIRECTORY_DCIM;
         final File startingFile = new File(externalStoragePath);
+        final GalleryIndex galleryIndex = GalleryIndex.getInstance(getActivity());
+        galleryWatcher = new GalleryWatcher(galleryIndex, startingFile,
+                new GalleryWatcher.OnGalleryChangedListener() {
+                    @Override
+                    public void onGalleryChanged(List<String> addedPaths, List<String> removedPaths) {
+                        if (rAdapter.isPaged()) {
+                            rAdapter.reloadPages();
+                            return;
+                        }
+                        rAdapter.addAll(addedPaths);
+                        rAdapter.removePaths(removedPaths);
+                    }
+                });
+
+        LoadTimings.markScanStarted();
+        final PreviewColors previewColors = PreviewColors.getInstance(getActivity());
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                previewColors.load();
+            }
+        });
+        final List<String> snapshotPaths = new GallerySnapshot(getActivity()).read();
+        rAdapter.addAll(snapshotPaths);
+        if (!snapshotPaths.isEmpty()) LoadTimings.markBatchShown(snapshotPaths.size());
 
         //  AsyncTask
-        new AsyncTask<Void, Void, Void>() {
-            List<File> readFiles = new ArrayList<>();
+        new AsyncTask<Void, List<String>, PathListDiff>() {
+
+            /*
+             * Paths added to the adapter in adapter order, while walking guarded by ScanBatcher
+             * that calls the listener
+             */
+            final List<String> shownOrder = new ArrayList<>(snapshotPaths);
+            final Set<String> shownPaths = new HashSet<>(snapshotPaths);
+
+            /*
+             * Modification count of the adapter after the last batch was added, accessed only on
+             * the main UI thread
+             */
+            int adapterModificationCount = rAdapter.getModificationCount();
+
+            @Override
+            @SuppressWarnings("unchecked")
+            protected PathListDiff doInBackground(Void... params) {
+                if (shownPaths.isEmpty()) {
+                    if (galleryIndex.getImageCount() >= PAGED_MODE_MIN_ITEMS) return null;
+                    final List<String> indexedPaths = galleryIndex.getImagePaths();
+                    shownOrder.addAll(indexedPaths);
+                    shownPaths.addAll(indexedPaths);
+                    if (!indexedPaths.isEmpty()) publishProgress(indexedPaths);
+                }
+
+                browseFolder(startingFile, galleryIndex, new OnImagesFoundListener() {
+                    @Override
+                    public void onImagesFound(List<String> paths) {
+                        final List<String> addedPaths = new ArrayList<>(paths.size());
+                        for (String path : paths) {
+                            if (shownPaths.add(path)) addedPaths.add(path);
+                        }
+                        shownOrder.addAll(addedPaths);
+                        if (!addedPaths.isEmpty()) publishProgress(addedPaths);
+                    }
+                });
+
+                /*
+                 * Index is up to date now, adapter should show exactly the same paths. Shown ones
+                 * keep their order, missing ones are appended in index order.
+                 */
+                final List<String> indexOrder = galleryIndex.getImagePaths();
+                final Set<String> indexedPaths = new HashSet<>(indexOrder);
+                final List<String> reconciledPaths = new ArrayList<>(indexedPaths.size());
+                for (String path : shownOrder) {
+                    if (indexedPaths.remove(path)) reconciledPaths.add(path);
+                }
+                for (String path : indexOrder) {
+                    if (indexedPaths.contains(path)) reconciledPaths.add(path);
+                }
+                return GalleryRecyclerAdapter.calculateDiff(shownOrder, reconciledPaths);
+            }
 
             @Override
-            protected void onPreExecute() {
-                super.onPreExecute();
-                showProgressBar();
+            protected void onProgressUpdate(List<String>... batches) {
+                for (List<String> batch : batches) {
+                    rAdapter.addAll(batch);
+                    LoadTimings.markBatchShown(batch.size());
+                }
+                adapterModificationCount = rAdapter.getModificationCount();
             }
 
+            @Override
+            protected void onPostExecute(PathListDiff diff) {
+                if (diff == null) {
+                    startPagedGallery(startingFile, galleryIndex);
+                    return;
+                }
+                rAdapter.applyDiff(diff, adapterModificationCount);
+                LoadTimings.markScanFinished(rAdapter.getItemCount());
+
+                // Index is complete, from now on only changed directories are scanned
+                galleryScanned = true;
+                if (started) galleryWatcher.start();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Show the gallery from the index page by page, so memory usage does not depend on the number
+     * of photos. Storage is scanned for changes in the background and the adapter is reloaded
+     * from the updated index when the scan is finished.
+     *
+     * @param startingFile Root of the scanned tree
+     * @param galleryIndex Index of images found by previous scans
+     */
+    private void startPagedGallery(final File startingFile, final GalleryIndex galleryIndex) {
+        rAdapter.setPagedIndex(galleryIndex);
+        new AsyncTask<Void, Void, Void>() {
+
             @Override
             protected Void doInBackground(Void... params) {
-                readFiles = browseFolder(startingFile, Integer.MAX_VALUE);
+                // Found images are read from the index afterwards
+                browseFolder(startingFile, galleryIndex, new OnImagesFoundListener() {
+                    @Override
+                    public void onImagesFound(List<String> paths) {
+                    }
+                });
                 return null;
             }
 
             @Override
             protected void onPostExecute(Void result) {
-                hideProgressBar();
-                for (File file : readFiles) {
-                    rAdapter.add(rAdapter.getItemCount(), file.getAbsolutePath());
-                }
+                rAdapter.reloadPages();
+                LoadTimings.markScanFinished(galleryIndex.getImageCount());
+
+                galleryScanned = true;
+                if (started) galleryWatcher.start();
             }
-        }.execute();
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Receives batches of images found by browseFolder, on the scanning thread
+     */
+    private interface OnImagesFoundListener {
+        void onImagesFound(List<String> paths);
     }
 
     /**
-     * Recusively browse trough all files in given directory, try to decode bounds of file to check
-     * if is supported type of image, if width or height will be greater than 0, it means that it
-     * can be converted to bitmap.
+     * Browse trough given directory and it's subdirectories looking for images that were added
+     * or removed since previous scan. Only directories changed since then are listed, and first
+     * bytes of their new files are checked to find out if it's supported type of image.
+     * Subdirectories are browsed in parallel by DirectoryWalker.
+     *
+     * Added images are passed to the listener in batches. First batch is small, so first screen
+     * of the grid is filled as soon as possible, next ones are larger to limit adapter updates.
      *
      * @param startingDirectory File representing starting directory
-     * @param maxItems          number of items
-     * @return List of images in given directory and it's subdirectories
+     * @param galleryIndex      Index of images found by previous scans, updated by this scan
+     * @param listener          Listener receiving batches of added image paths
+     * @return Paths of removed images
      */
-    private List<File> browseFolder(File startingDirectory, int maxItems) {
-        List<File> listOfFiles = new ArrayList<>();
-        File[] files = startingDirectory.listFiles();
+    private List<String> browseFolder(File startingDirectory, GalleryIndex galleryIndex,
+                                      OnImagesFoundListener listener) {
+        final ScanBatcher batcher = new ScanBatcher(listener);
+        final List<String> removedPaths =
+                new GalleryScanner(galleryIndex).scan(startingDirectory, batcher);
+        batcher.flush();
+        return removedPaths;
+    }
 
-        /*
-            * BitmapFactory inJustDecodeBounds outWidth and outHeight options returns width and
-            * height, or -1 if some error occurred when decoding. So if we get -1 then this file
-            * cannot be decoded to bitmap, so it's not supported file type.
-            *
-            * I did it this way to automatically recognize supported image file types, and avoid
-            * messing with mimetypes
+    /*
+     * Collects found images into batches, batch is passed to the listener when it's full or when
+     * it waits for too long
+     */
+    private static class ScanBatcher implements DirectoryWalker.OnImageFoundListener {
+
+        /**
+         * Size of the first batch, enough to fill first screen of the grid
          */
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        for (File file : files) {
-            // If checked file is directory, go inside.
-            if (file.isDirectory()) {
-                for (File f : browseFolder(file, maxItems)) {
-                    if (listOfFiles.size() < maxItems) {
-                        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
-                        if (options.outWidth != -1 && options.outHeight != -1) {
-                            listOfFiles.add(f);
-                        }
-                    } else return listOfFiles;
-                }
-            } else {
-                if (listOfFiles.size() < maxItems) {
-                    BitmapFactory.decodeFile(file.getAbsolutePath(), options);
-                    if (options.outWidth != -1 && options.outHeight != -1) {
-                        listOfFiles.add(file);
-                    }
-                } else {
-                    return listOfFiles;
-                }
+        private static final int FIRST_BATCH_SIZE = GALLERY_COLS * 8;
+        private static final int BATCH_SIZE = 500;
+
+        /**
+         * Maximal time of collecting single batch
+         */
+        private static final long BATCH_INTERVAL_MS = 250;
+
+        private final OnImagesFoundListener listener;
+        private List<String> batch = new ArrayList<>(FIRST_BATCH_SIZE);
+        private long batchStart = SystemClock.elapsedRealtime();
+        private int count;
+
+        ScanBatcher(OnImagesFoundListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public synchronized void onImageFound(File file) {
+            batch.add(file.getAbsolutePath());
+            count++;
+            final int limit = count == batch.size() ? FIRST_BATCH_SIZE : BATCH_SIZE;
+            if (batch.size() >= limit
+                    || SystemClock.elapsedRealtime() - batchStart >= BATCH_INTERVAL_MS) {
+                flush();
+            }
+        }
+
+        synchronized void flush() {
+            if (!batch.isEmpty()) {
+                listener.onImagesFound(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+            batchStart = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Passes range of visible positions to DecodeExecutor, so thumbnails of visible cells are
+     * decoded first and waiting decodes of cells scrolled off the screen are dropped.
+     */
+    private class VisibleRangeListener extends RecyclerView.OnScrollListener {
+
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            final GridLayoutManager layoutManager =
+                    (GridLayoutManager) recyclerView.getLayoutManager();
+            final int first = layoutManager.findFirstVisibleItemPosition();
+            final int last = layoutManager.findLastVisibleItemPosition();
+            if (first == RecyclerView.NO_POSITION) return;
+
+            rAdapter.setVisibleRange(first, last);
+            // One additional row on both sides, for cells that are bound before being visible
+            DecodeExecutor.getInstance().setVisibleRange(Math.max(0, first - GALLERY_COLS),
+                    last + GALLERY_COLS);
+        }
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (LOCAL_LOG && newState == RecyclerView.SCROLL_STATE_IDLE) {
+                final DecodeExecutor executor = DecodeExecutor.getInstance();
+                Log.d(DEBUG_TAG, "Decode queue depth: " + executor.getQueueDepth()
+                        + ", cancelled decodes: " + executor.getCancelledCount());
             }
         }
-        return listOfFiles;
     }
 
     public interface OnPhotoLoaded {
@@ -220,9 +451,11 @@ public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapte
         } else {
             showProgressBar();
             rAdapter.notifyItemChanged(position);
-            if (!(openEditingMode(new File(item.getItemUri()).getAbsolutePath()))) {
+            final String path = rAdapter.getItemPath(position);
+            if (path == null || !(openEditingMode(new File(path).getAbsolutePath()))) {
+                hideProgressBar();
                 Toast.makeText(getActivity().getApplicationContext(), "Cannot load the photo"
-                        + " " + item.getItemUri(), Toast.LENGTH_SHORT).show();
+                        + " " + path, Toast.LENGTH_SHORT).show();
             }
         }
     }
@@ -233,6 +466,10 @@ public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapte
             actionMode = getActivity().startActionMode(actionModeCallback);
         }
         toggleSelection(position);
+        if (rAdapter.isSelected(position)) {
+            // Dragging finger further selects range of items
+            dragSelectTouchListener.startDragSelection(position);
+        }
         return true;
     }
 
@@ -242,32 +479,53 @@ public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapte
     }
 
     /**
-     * Deletes file from file paths list
+     * Deletes files off the main UI thread. Progress is shown in the action mode title, gallery
+     * does not react to clicks until deletion is finished. Only files that were actually deleted
+     * are removed from the adapter.
      *
-     * @return number of files were not deleted, if returned number is 0 then all files were deleted,
-     * returns -1 if list of file paths is empty, there are no files to delete.
+     * @param paths Paths to files to delete
+     * @param mode  Action mode of the selection being deleted
      */
-    public int delete(List<String> paths) {
-        int notDeletedFiles = paths.size();
-        if (!paths.isEmpty()) {
-            for (String path : paths) {
-                File file = new File(path);
-                if(file.delete()) notDeletedFiles--;
+    private void delete(List<String> paths, final ActionMode mode) {
+        if (paths.isEmpty()) {
+            setDeleting(false);
+            mode.finish();
+            Toast.makeText(getActivity().getApplicationContext(), "no files selected",
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        showProgressBar();
+        new FileDeleter(getActivity(), paths, new FileDeleter.OnDeleteListener() {
+            @Override
+            public void onDeleteProgress(int deletedCount, int failedCount, int totalCount) {
+                mode.setTitle("Deleting " + (deletedCount + failedCount) + " of " + totalCount);
+            }
+
+            @Override
+            public void onDeleteFinished(List<String> deletedPaths, List<String> failedPaths) {
+                setDeleting(false);
+                if (!isAdded()) return;
+                hideProgressBar();
+                rAdapter.removePaths(deletedPaths);
+                mode.finish();
+
+                String message = deletedPaths.size() + " files deleted";
+                if (!failedPaths.isEmpty()) {
+                    message += ", " + failedPaths.size() + " could not be deleted";
+                }
+                Toast.makeText(getActivity().getApplicationContext(), message,
+                        Toast.LENGTH_LONG).show();
             }
-        } else notDeletedFiles = -1;
-        notifyMediaScanner(paths);
-        return notDeletedFiles;
+        }).start();
     }
 
-    /**
-     * Notifies the system that media files were removed and to scan remaining files again
+    /*
+     * Enable or disable actions of the selection while it's being deleted
      */
-    public void notifyMediaScanner (List<String> paths) {
-        MediaScannerConnection.scanFile(getActivity(), paths.toArray(new String[paths.size()]), null,
-                new MediaScannerConnection.OnScanCompletedListener() {
-                    public void onScanCompleted(String path, Uri uri) {
-                    }
-                });
+    private void setDeleting(boolean deleting) {
+        this.deleting = deleting;
+        if (actionMode != null) actionMode.invalidate();
     }
 
     public void showProgressBar() {
@@ -310,6 +568,15 @@ public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapte
      */
     private void toggleSelection(int position) {
         rAdapter.toggleSelection(position);
+        updateSelectionState();
+    }
+
+    /**
+     * Update title of the action mode after selection changed, and stop the selection if no item
+     * is selected anymore.
+     */
+    private void updateSelectionState() {
+        if (actionMode == null) return;
         int count = rAdapter.getSelectedItemCount();
         int total = rAdapter.getItemCount();
 
@@ -327,8 +594,6 @@ public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapte
 
     private class ActionModeCallback implements ActionMode.Callback {
 
-        private List<String> pathsToDelete;
-
         @Override
         public boolean onCreateActionMode(ActionMode mode, Menu menu) {
             mode.getMenuInflater().inflate (R.menu.menu_select_delete, menu);
@@ -337,7 +602,11 @@ public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapte
 
         @Override
         public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
-            if (rAdapter.getSelectedItems().size() > 1) {
+            menu.findItem(R.id.delete).setEnabled(!deleting);
+            menu.findItem(R.id.select_all).setEnabled(!deleting);
+            menu.findItem(R.id.invert_selection).setEnabled(!deleting);
+            menu.findItem(R.id.pick).setEnabled(!deleting);
+            if (rAdapter.getSelectedItemCount() > 1) {
                 menu.findItem(R.id.pick).setVisible(false);
                 return true;
             } else {
@@ -347,47 +616,46 @@ public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapte
         }
 
         @Override
-        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+        public boolean onActionItemClicked(final ActionMode mode, MenuItem item) {
+            // Menu may not be updated yet
+            if (deleting) return true;
             switch (item.getItemId()) {
                 case R.id.delete:
+                    setDeleting(true);
                     /*
-                    Get list of file to delete from adapter
-                    */
-                    pathsToDelete = new ArrayList<>();
-                    for (Integer pos : rAdapter.getSelectedItems()) {
-                        pathsToDelete.add(rAdapter.getItemPath(pos));
-                    }
-
-                    /*
-                    Get amount of files to delete
-                    */
-                    int initialFilesCount = pathsToDelete.size();
-
-                    /*
-                    Delete fies, and return how many file were not deleted
-                    */
-                    int notDeletedFilesCount = delete(pathsToDelete);
-
-                    pathsToDelete.clear();
-                    /*
-                    Remove deleted files from adapter
+                    Get list of file to delete from adapter, in paged mode it's read from the
+                    index off the main UI thread
                     */
-                    rAdapter.removeItemsFromAdapter(rAdapter.getSelectedItems());
-
-                    mode.finish();
-
-                    if (notDeletedFilesCount == -1)
-                        Toast.makeText(getActivity().getApplicationContext(),
-                                "no files selected",
-                                Toast.LENGTH_LONG).show();
-
-                    else Toast.makeText(getActivity().getApplicationContext(),
-                            initialFilesCount + " files deleted",
-                            Toast.LENGTH_LONG).show();
+                    rAdapter.resolveSelectedPaths(
+                            new PagedPathSource.OnPathsResolvedListener() {
+                                @Override
+                                public void onPathsResolved(List<String> paths) {
+                                    if (isAdded()) {
+                                        delete(paths, mode);
+                                    } else {
+                                        deleting = false;
+                                    }
+                                }
+                            });
+                    return true;
+                case R.id.select_all:
+                    rAdapter.selectAll();
+                    updateSelectionState();
+                    return true;
+                case R.id.invert_selection:
+                    rAdapter.invertSelection();
+                    updateSelectionState();
                     return true;
                 case R.id.pick:
-                    openEditingMode(rAdapter.getItemPath(rAdapter.getSelectedItems().get(0)));
-                    mode.finish();
+                    rAdapter.resolveSelectedPaths(
+                            new PagedPathSource.OnPathsResolvedListener() {
+                                @Override
+                                public void onPathsResolved(List<String> paths) {
+                                    if (!isAdded()) return;
+                                    if (!paths.isEmpty()) openEditingMode(paths.get(0));
+                                    mode.finish();
+                                }
+                            });
                     return true;
 
                 default:
@@ -412,6 +680,53 @@ public class LoadPhotoFragment extends Fragment implements GalleryRecyclerAdapte
             Hide progress bar when fragment becomes invisible
          */
         hideProgressBar();
+        started = false;
+        galleryWatcher.stop();
+        saveSnapshot();
+        PreviewColors.getInstance(getActivity()).flush();
+        final DiskThumbnailCache diskCache = DiskThumbnailCache.getInstance(getActivity());
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                diskCache.flush();
+            }
+        });
+    }
+
+    /*
+     * Detach the adapter, so cells still shown release their bitmaps into BitmapPool
+     */
+    @Override
+    public void onDestroyView() {
+        final RecyclerView galleryView = (RecyclerView) getView().findViewById(R.id.galleryView);
+        galleryView.setAdapter(null);
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        started = true;
+        if (galleryScanned) galleryWatcher.start();
+    }
+
+    /*
+     * Store paths shown by the adapter, so next time gallery is filled right after creation.
+     * Large galleries are not stored, next time they are shown in paged mode.
+     */
+    private void saveSnapshot() {
+        final GallerySnapshot snapshot = new GallerySnapshot(getActivity());
+        if (rAdapter.isPaged() || rAdapter.getItemCount() >= PAGED_MODE_MIN_ITEMS) {
+            snapshot.delete();
+            return;
+        }
+        final List<String> paths = rAdapter.getItemPaths();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                snapshot.write(paths);
+            }
+        });
     }
 
 
@@ -0,0 +1,132 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.lists;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Touch listener selecting range of items by dragging finger over them, after selection was
+ * started by long click. Items between the item where dragging started and the item under the
+ * finger are selected, items that leave that range while dragging are unselected again.
+ *
+ * Selection is changed by GalleryRecyclerAdapter.setRangeSelected, so only items that changed
+ * state are rebound.
+ */
+
+public class DragSelectTouchListener implements RecyclerView.OnItemTouchListener {
+
+    /**
+     * Called when dragging changed the selection
+     */
+    public interface OnDragSelectionListener {
+        void onDragSelectionChanged();
+    }
+
+    private final GalleryRecyclerAdapter adapter;
+    private final OnDragSelectionListener listener;
+
+    private boolean active;
+    private int startPosition;
+    private int endPosition;
+
+    /**
+     * @param adapter Adapter which items are selected
+     * @param listener Listener notified when selection changes
+     */
+    public DragSelectTouchListener(GalleryRecyclerAdapter adapter,
+                                   OnDragSelectionListener listener) {
+        this.adapter = adapter;
+        this.listener = listener;
+    }
+
+    /**
+     * Start selecting range of items from given position, called from long click of the item.
+     * Selection ends when finger is lifted.
+     *
+     * @param position Adapter position of the long clicked item
+     */
+    public void startDragSelection(int position) {
+        active = true;
+        startPosition = position;
+        endPosition = position;
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(RecyclerView recyclerView, MotionEvent e) {
+        if (!active) return false;
+        switch (e.getActionMasked()) {
+            case MotionEvent.ACTION_MOVE:
+                // Take the gesture from item view and from scrolling
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                active = false;
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void onTouchEvent(RecyclerView recyclerView, MotionEvent e) {
+        switch (e.getActionMasked()) {
+            case MotionEvent.ACTION_MOVE:
+                final View child = recyclerView.findChildViewUnder(e.getX(), e.getY());
+                if (child != null) {
+                    selectRangeTo(recyclerView.getChildAdapterPosition(child));
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                active = false;
+                break;
+        }
+    }
+
+    @Override
+    public void onRequestDisallowInterceptTouchEvent(boolean disallowIntercept) {}
+
+    /*
+     * Move end of the selected range to given position
+     */
+    private void selectRangeTo(int position) {
+        if (position == RecyclerView.NO_POSITION || position == endPosition) return;
+
+        final int oldFirst = Math.min(startPosition, endPosition);
+        final int oldLast = Math.max(startPosition, endPosition);
+        final int newFirst = Math.min(startPosition, position);
+        final int newLast = Math.max(startPosition, position);
+
+        if (oldFirst < newFirst) adapter.setRangeSelected(oldFirst, newFirst - 1, false);
+        if (oldLast > newLast) adapter.setRangeSelected(newLast + 1, oldLast, false);
+        adapter.setRangeSelected(newFirst, newLast, true);
+
+        endPosition = position;
+        listener.onDragSelectionChanged();
+    }
+}
@@ -1,20 +1,27 @@
 package com.kazimierak.kacper.fancygallerylikephotopicker.lists;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.SystemClock;
 import android.support.v7.widget.RecyclerView;
-import android.util.SparseBooleanArray;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import com.kazimierak.kacper.fancygallerylikephotopicker.R;
 import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.BitmapLoaderTask;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.GalleryIndex;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.PreviewColors;
 import com.kazimierak.kacper.fancygallerylikephotopicker.views.SquareCardView;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by Kacper Kazimierak 2016-05-29.
@@ -47,14 +54,47 @@ import java.util.List;
  * Supports onClick and onLongTouch.
  * Supports choice of multiple items
  *
+ * Paths are held in memory, or in paged mode read from GalleryIndex page by page around the
+ * visible range. In paged mode every change of the items is read from the index, which must be
+ * updated first, and row ids of the index serve as item ids, so selection survives reloads.
+ *
+ * In fling mode items show thumbnails from memory cache or preview colors only. Decoding is
+ * deferred until fling mode ends, then only items attached to the RecyclerView are loaded.
  */
 
 public class GalleryRecyclerAdapter extends RecyclerView.Adapter<GalleryRecyclerAdapter.ItemHolder>{
 
+    private final static String DEBUG_TAG = "GalleryRecyclerAdapter";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Removal of more runs of consecutive items is notified as change of the whole data set
+     */
+    private static final int MAX_REMOVED_RUN_NOTIFICATIONS = 64;
+
+    /**
+     * Size of thumbnails shown in the grid
+     */
+    public static final int THUMBNAIL_SIZE = 120;
+
+    private static final int NO_ITEM_ID = -1;
+
+    /*
+     * Selection changes done in paged mode with row ids of all items
+     */
+    private static final int PAGED_SELECTION_SELECT_ALL = 0;
+    private static final int PAGED_SELECTION_INVERT = 1;
+    private static final int PAGED_SELECTION_RETAIN = 2;
+
+    /*
+     * List of image paths, stored compactly with stable id of every item
+     */
+    private final PathTable filePaths = new PathTable();
+
     /*
-     * List of image paths
+     * Source of paths in paged mode, null when paths are held in filePaths
      */
-    private List<String> filePaths;
+    private PagedPathSource pagedSource;
 
     /*
      * LayoutInflater from RecyclerView
@@ -62,18 +102,28 @@ public class GalleryRecyclerAdapter extends RecyclerView.Adapter<GalleryRecycler
     private LayoutInflater layoutInflater;
 
     private OnItemClickListener onItemClickListener;
+    private OnSelectionChangedListener onSelectionChangedListener;
 
     /*
-     * BooleanArray indicating which elements were chosen in multiple choice mode
+     * Items chosen in multiple choice mode, by stable id
      */
-    private SparseBooleanArray selectedItems;
-    private Context context;
+    private final SelectionModel selection = new SelectionModel();
+
+    /*
+     * Placeholder shown while thumbnail is loading, decoded once and shared by all items
+     */
+    private final Bitmap placeholderBitmap;
+
+    private final PreviewColors previewColors;
+    private RecyclerView recyclerView;
+    private boolean flingMode;
 
     public GalleryRecyclerAdapter(Context context){
         layoutInflater = LayoutInflater.from(context);
-        filePaths = new ArrayList<>();
-        selectedItems = new SparseBooleanArray();
-        this.context = context;
+        placeholderBitmap =
+                BitmapFactory.decodeResource(context.getResources(), R.drawable.loadplaceholder);
+        previewColors = PreviewColors.getInstance(context);
+        setHasStableIds(true);
     }
 
     /*
@@ -88,26 +138,218 @@ public class GalleryRecyclerAdapter extends RecyclerView.Adapter<GalleryRecycler
 
     /*
      * Called before ItemHolder is attached to adapter (after creating, or recycling it when
-     * became invisible.
+     * became invisible. Nothing is allocated when thumbnail is in memory cache, holder reuses its
+     * loader task and reads path of the item into its own builder, path String is created only
+     * when the thumbnail has to be decoded.
      */
     @Override
     public void onBindViewHolder(GalleryRecyclerAdapter.ItemHolder holder, int position) {
         // Get file path of attached photo from list and set it to itemHolder
-        String targetPath = filePaths.get(position);
-        holder.setItemPath(targetPath);
-        // set setLongClickable to true to enable multiple choice mode
-        holder.itemView.setLongClickable(true);
+        if (pagedSource != null) {
+            holder.setItemPath(pagedSource.get(position));
+            holder.itemId = NO_ITEM_ID;
+        } else {
+            final int id = getItemIntId(position);
+            // Path is read from the table only when holder shows another item
+            if (holder.itemId != id || holder.pathBuffer.length() == 0) {
+                filePaths.getPath(position, holder.pathBuffer);
+                holder.itemPath = null;
+            }
+            holder.itemId = id;
+        }
+        holder.selectedOverlay.setVisibility(isSelected(position) ? View.VISIBLE : View.INVISIBLE);
+        holder.deferred = false;
+
+        if (holder.pathBuffer.length() == 0) {
+            // Page is not loaded yet, item is bound again when it arrives
+            holder.loaderTask.showPlaceholder(placeholderBitmap);
+            return;
+        }
+
+        if (flingMode && !holder.loaderTask.loadFromCache(holder.pathBuffer)) {
+            final int color = previewColors.get(holder.getItemUri());
+            if (color != PreviewColors.NO_COLOR) {
+                holder.loaderTask.showPreview(color);
+            } else {
+                holder.loaderTask.showPlaceholder(placeholderBitmap);
+            }
+            holder.deferred = true;
+            return;
+        }
 
         // load bitmaps asynchronously
-        BitmapLoaderTask loaderTask = new BitmapLoaderTask(holder.imageView, 120);
-        loaderTask.loadBitmap(context, targetPath, holder.imageView,
-                BitmapFactory.decodeResource(context.getResources(), R.drawable.loadplaceholder));
-        holder.selectedOverlay.setVisibility(isSelected(position) ? View.VISIBLE : View.INVISIBLE);
+        holder.loaderTask.load(holder.getItemPathChars(), placeholderBitmap, position);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        this.recyclerView = recyclerView;
+    }
+
+    /*
+     * Attached items are not recycled when the view is destroyed, their bitmaps are released
+     * here, so BitmapPool can reuse them
+     */
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            final RecyclerView.ViewHolder holder =
+                    recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+            if (holder instanceof ItemHolder) releaseHolder((ItemHolder) holder);
+        }
+        this.recyclerView = null;
+    }
+
+    /*
+     * Cached views are attached again without being bound, deferred load is started here
+     */
+    @Override
+    public void onViewAttachedToWindow(GalleryRecyclerAdapter.ItemHolder holder) {
+        super.onViewAttachedToWindow(holder);
+        if (!flingMode) loadDeferred(holder);
+    }
+
+    /**
+     * Enable or disable fling mode. When it's disabled, deferred thumbnails of attached items are
+     * loaded.
+     * @param flingMode true while the grid is flung too fast for thumbnails to be decoded
+     */
+    public void setFlingMode(boolean flingMode) {
+        if (this.flingMode == flingMode) return;
+        this.flingMode = flingMode;
+        if (flingMode || recyclerView == null) return;
+
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            final RecyclerView.ViewHolder holder =
+                    recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+            if (holder instanceof ItemHolder) loadDeferred((ItemHolder) holder);
+        }
+    }
+
+    public boolean isFlingMode() { return flingMode; }
+
+    /*
+     * Load thumbnail of item that shows preview since it was bound in fling mode
+     */
+    private void loadDeferred(ItemHolder holder) {
+        if (!holder.deferred) return;
+        holder.deferred = false;
+        final int position = holder.getAdapterPosition();
+        if (holder.pathBuffer.length() > 0 && position != RecyclerView.NO_POSITION) {
+            holder.loaderTask.load(holder.getItemPathChars(), placeholderBitmap, position);
+        }
+    }
+
+    @Override
+    public long getItemId(int position) {
+        final int id = getItemIntId(position);
+        // Items of pages that are not loaded get ids no other item has
+        return id != NO_ITEM_ID ? id : -2L - position;
+    }
+
+    /*
+     * Stable id of the item at given position. In paged mode it's row id of the item, which fits
+     * in int, or NO_ITEM_ID if page of the item is not loaded.
+     */
+    private int getItemIntId(int position) {
+        if (pagedSource == null) return filePaths.getId(position);
+        final long id = pagedSource.getId(position);
+        return id != PagedPathSource.NO_ID ? (int) id : NO_ITEM_ID;
+    }
+
+    /**
+     * Switch to paged mode, paths are read from given index page by page instead of being held
+     * in memory. Current items and selection are dropped.
+     * @param index Index of shown images, paths are shown in index order
+     */
+    public void setPagedIndex(GalleryIndex index) {
+        filePaths.clear();
+        selection.clear();
+        pagedSource = new PagedPathSource(index, new PagedPathSource.OnPagesChangedListener() {
+            @Override
+            public void onPageLoaded(int positionStart, int itemCount) {
+                notifyItemRangeChanged(positionStart, itemCount);
+            }
+
+            @Override
+            public void onReloaded() {
+                notifyDataSetChanged();
+                // Selection is kept by row ids, only images removed from the index are dropped
+                if (selection.getCount() > 0) changePagedSelection(PAGED_SELECTION_RETAIN);
+            }
+        });
+        notifyDataSetChanged();
+        pagedSource.reload();
+    }
+
+    /*
+     * Change selection in paged mode with row ids of all items, read off the main UI thread,
+     * listener is notified when the selection is changed
+     */
+    private void changePagedSelection(final int change) {
+        final PagedPathSource source = pagedSource;
+        source.readIds(new PagedPathSource.OnIdsReadListener() {
+            @Override
+            public void onIdsRead(BitSet ids) {
+                if (pagedSource != source) return;
+                final int count = selection.getCount();
+                if (change == PAGED_SELECTION_SELECT_ALL) {
+                    selection.selectAll(ids);
+                } else if (change == PAGED_SELECTION_INVERT) {
+                    selection.invert(ids);
+                } else {
+                    selection.retainAll(ids);
+                    // Removed images are not shown anymore, nothing to rebind
+                    if (selection.getCount() != count) notifySelectionChanged();
+                    return;
+                }
+                notifyItemRangeChanged(0, getItemCount());
+                notifySelectionChanged();
+            }
+        });
+    }
+
+    private void notifySelectionChanged() {
+        if (onSelectionChangedListener != null) onSelectionChangedListener.onSelectionChanged();
+    }
+
+    /**
+     * @return true if paths are read from the index page by page
+     */
+    public boolean isPaged() { return pagedSource != null; }
+
+    /**
+     * Read items again from the index in paged mode, called after the index was updated
+     */
+    public void reloadPages() {
+        if (pagedSource != null) pagedSource.reload();
+    }
+
+    /**
+     * Pass range of visible positions, so paged mode keeps pages around it and prefetches next
+     * ones in the scroll direction
+     * @param first First visible position
+     * @param last Last visible position
+     */
+    public void setVisibleRange(int first, int last) {
+        if (pagedSource != null) pagedSource.setVisibleRange(first, last);
     }
 
     @Override
     public void onViewRecycled(GalleryRecyclerAdapter.ItemHolder holder) {
         super.onViewRecycled(holder);
+        releaseHolder(holder);
+    }
+
+    /*
+     * Cancel loading and release shown bitmap, safe to call again on released holder
+     */
+    private static void releaseHolder(ItemHolder holder) {
+        holder.loaderTask.cancel();
+        holder.deferred = false;
+        BitmapLoaderTask.releaseBitmap(holder.imageView);
         holder.imageView.setImageDrawable(null);
     }
 
@@ -116,58 +358,94 @@ public class GalleryRecyclerAdapter extends RecyclerView.Adapter<GalleryRecycler
      * @param position position of item to be removed
      */
     public void removeItemFromAdapter (int position) {
+        if (pagedSource != null) {
+            pagedSource.reload();
+            return;
+        }
+        selection.setSelected(getItemIntId(position), false);
         filePaths.remove(position);
         notifyItemRemoved(position);
     }
 
     /**
      * Remove multiple items from the adapter,
-     * @param positions list of item position to be removed
+     * @param positions list of item position to be removed, in any order
      */
     public void removeItemsFromAdapter ( List<Integer> positions ) {
-        // reverse sort the list
-        Collections.sort(positions, new Comparator<Integer>() {
-            @Override
-            public int compare(Integer lhs, Integer rhs) {
-                return rhs - lhs;
+        final int[] sortedPositions = new int[positions.size()];
+        for (int i = 0; i < sortedPositions.length; i++) {
+            sortedPositions[i] = positions.get(i);
+        }
+        Arrays.sort(sortedPositions);
+        removePositions(sortedPositions, sortedPositions.length);
+    }
+
+    /**
+     * Remove multiple items from the adapter in single pass over the path table. Remaining items
+     * are moved to their new positions at once, and every run of consecutive removed positions is
+     * notified with single range notification. Selection is kept by stable ids, so it follows
+     * remaining items without remapping.
+     *
+     * @param sortedPositions positions of removed items in ascending order, duplicates are allowed
+     * @param count number of used elements of sortedPositions
+     */
+    public void removePositions (int[] sortedPositions, int count) {
+        if (count == 0) return;
+        if (pagedSource != null) {
+            pagedSource.reload();
+            return;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        final int size = filePaths.size();
+
+        if (selection.getCount() > 0) {
+            for (int i = 0; i < count; i++) {
+                selection.setSelected(getItemIntId(sortedPositions[i]), false);
             }
-        });
+        }
+        final int removedCount = filePaths.removePositions(sortedPositions, count);
 
         /*
-         * Split the list into ranges, not all the items will be indicated as removed, therefore
-         * only items after ones removed will be recreated. This improves performance.
+         * Notify runs from the last one, so positions of earlier runs are still valid. When there
+         * are too many runs, rebinding visible items is cheaper than processing every run.
          */
-        while (!positions.isEmpty()) {
-            if (positions.size() == 1) {
-                removeItemFromAdapter(positions.get(0));
-                positions.remove(0);
-            } else {
-                int count = 1;
-                while (positions.size() > count && positions.get(count).equals(positions.get(count - 1) - 1)){
-                    ++count;
-                }
-
-                if (count == 1) {
-                    removeItemFromAdapter(positions.get(0));
-                } else {
-                    removeRange(positions.get(count - 1), count);
-                }
-
-                for (int i=0; i<count; i++){
-                    positions.remove(0);
+        int runCount = 1;
+        for (int i = 1; i < count; i++) {
+            if (sortedPositions[i] > sortedPositions[i - 1] + 1) runCount++;
+        }
+        if (runCount > MAX_REMOVED_RUN_NOTIFICATIONS) {
+            notifyDataSetChanged();
+        } else {
+            int runEnd = count - 1;
+            for (int i = count - 1; i >= 0; i--) {
+                if (i == 0 || sortedPositions[i - 1] < sortedPositions[i] - 1) {
+                    notifyItemRangeRemoved(sortedPositions[i],
+                            sortedPositions[runEnd] - sortedPositions[i] + 1);
+                    runEnd = i - 1;
                 }
             }
         }
+        if (LOCAL_LOG) Log.d(DEBUG_TAG, "Removed " + removedCount + " of " + size + " items in "
+                + runCount + " runs, " + (SystemClock.elapsedRealtime() - start) + " ms");
     }
 
-    /*
-     * Removes items from given range from the adapter
+    /**
+     * Remove items showing given images from the adapter
+     * @param paths paths to the removed images
      */
-    private void removeRange(int positionStart, int itemCount) {
-        for (int i = 0; i < itemCount; ++i) {
-            filePaths.remove(positionStart);
+    public void removePaths (Collection<String> paths) {
+        if (paths.isEmpty()) return;
+        if (pagedSource != null) {
+            pagedSource.reload();
+            return;
+        }
+        final Set<String> removed = new HashSet<>(paths);
+        final int[] positions = new int[paths.size()];
+        int count = 0;
+        for (int i = 0; i < filePaths.size() && count < positions.length; i++) {
+            if (removed.contains(filePaths.get(i))) positions[count++] = i;
         }
-        notifyItemRangeRemoved(positionStart, itemCount);
+        removePositions(positions, count);
     }
 
     /**
@@ -176,17 +454,33 @@ public class GalleryRecyclerAdapter extends RecyclerView.Adapter<GalleryRecycler
      * @return true if the item is selected, false otherwise
      */
     public boolean isSelected(int position) {
-        return getSelectedItems().contains(position);
+        if (selection.getCount() == 0) return false;
+        final int id = getItemIntId(position);
+        return id != NO_ITEM_ID && selection.isSelected(id);
     }
 
     /**
-     * Indicates the list of selected items
-     * @return List of selected items ids
+     * Indicates positions of selected items, without boxing. In paged mode only items of loaded
+     * pages are found, paths of all selected items are read by resolveSelectedPaths.
+     * @return Positions of selected items, in ascending order
+     */
+    public int[] getSelectedPositions() {
+        final int[] positions = new int[selection.getCount()];
+        int count = 0;
+        for (int i = 0; i < getItemCount() && count < positions.length; ++i) {
+            if (isSelected(i)) positions[count++] = i;
+        }
+        return positions;
+    }
+
+    /**
+     * Indicates the list of selected items. In paged mode only items of loaded pages are found.
+     * @return List of selected items positions, in ascending order
      */
     public List<Integer> getSelectedItems() {
-        List<Integer> items = new ArrayList<>(selectedItems.size());
-        for (int i = 0; i < selectedItems.size(); ++i) {
-            items.add(selectedItems.keyAt(i));
+        List<Integer> items = new ArrayList<>(selection.getCount());
+        for (int i = 0; i < getItemCount() && items.size() < selection.getCount(); ++i) {
+            if (isSelected(i)) items.add(i);
         }
         return items;
     }
@@ -196,22 +490,121 @@ public class GalleryRecyclerAdapter extends RecyclerView.Adapter<GalleryRecycler
      * @return Selected items count
      */
     public int getSelectedItemCount() {
-        return selectedItems.size();
+        return selection.getCount();
     }
 
     /**
      * Clear the selection status for all items
      */
     public void clearSelection() {
-        List<Integer> selection = getSelectedItems();
-        selectedItems.clear();
-        for (Integer i : selection) {
-            notifyItemChanged(i);
+        if (selection.getCount() == 0) return;
+        selection.clear();
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    /**
+     * Select all items. In paged mode ids of all items are read from the index first, selection
+     * listener is notified when it's done.
+     */
+    public void selectAll() {
+        if (pagedSource != null) {
+            changePagedSelection(PAGED_SELECTION_SELECT_ALL);
+            return;
         }
+        setRangeSelected(0, getItemCount() - 1, true);
     }
 
+    /**
+     * Select items that are not selected and unselect the selected ones. In paged mode ids of all
+     * items are read from the index first, selection listener is notified when it's done.
+     */
+    public void invertSelection() {
+        if (pagedSource != null) {
+            changePagedSelection(PAGED_SELECTION_INVERT);
+            return;
+        }
+        for (int i = 0; i < getItemCount(); ++i) {
+            selection.toggle(getItemIntId(i));
+        }
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    /**
+     * Change selection status of all items in given range, only changed items are rebound
+     * @param from Position of the first item of the range
+     * @param to Position of the last item of the range, may be lower than from
+     * @param isSelected New selection status of the items
+     */
+    public void setRangeSelected(int from, int to, boolean isSelected) {
+        final int first = Math.max(0, Math.min(from, to));
+        final int last = Math.min(getItemCount() - 1, Math.max(from, to));
+        int changedStart = -1;
+        for (int i = first; i <= last; ++i) {
+            // Items of pages that are not loaded are not shown, so they are not dragged over
+            final int id = getItemIntId(i);
+            final boolean changed = id != NO_ITEM_ID && selection.setSelected(id, isSelected);
+            if (changed && changedStart == -1) {
+                changedStart = i;
+            } else if (!changed && changedStart != -1) {
+                notifyItemRangeChanged(changedStart, i - changedStart);
+                changedStart = -1;
+            }
+        }
+        if (changedStart != -1) notifyItemRangeChanged(changedStart, last + 1 - changedStart);
+    }
+
+    /**
+     * Path of the item at given position, in paged mode its page may be read on calling thread.
+     * Meant for single item whose page is likely loaded, e.g. clicked one, paths of selected items
+     * are read by resolveItemPaths.
+     * @param position Position of the item
+     * @return Path of the item, null if it was removed from the index in the meantime
+     */
     public String getItemPath(int position) {
-        return filePaths.get(position);
+        return pagedSource != null ? pagedSource.getSync(position) : filePaths.get(position);
+    }
+
+    /**
+     * Get paths of items at given positions without blocking, e.g. of selected items. In paged
+     * mode pages that are not loaded are read on the background thread.
+     * @param positions Positions of the items, in ascending order
+     * @param listener Listener receiving paths on the main UI thread, items removed from the index
+     *                 in the meantime are skipped
+     */
+    public void resolveItemPaths(int[] positions,
+                                 PagedPathSource.OnPathsResolvedListener listener) {
+        if (pagedSource != null) {
+            pagedSource.resolve(positions, listener);
+            return;
+        }
+        final List<String> paths = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            paths.add(filePaths.get(position));
+        }
+        listener.onPathsResolved(paths);
+    }
+
+    /**
+     * Get paths of all selected items without blocking. In paged mode they are read from the
+     * index off the main UI thread by row ids, so items of pages that are not loaded are included.
+     * @param listener Listener receiving paths in adapter order on the main UI thread, items
+     *                 removed from the index in the meantime are skipped
+     */
+    public void resolveSelectedPaths(PagedPathSource.OnPathsResolvedListener listener) {
+        if (pagedSource != null) {
+            pagedSource.resolveIds(selection.getSelectedIds(), listener);
+            return;
+        }
+        resolveItemPaths(getSelectedPositions(), listener);
+    }
+
+    /**
+     * Path of the item at given position without blocking, e.g. for prefetching
+     * @param position Position of the item
+     * @return Path of the item, null if its page is not loaded in paged mode
+     */
+    public String getLoadedItemPath(int position) {
+        return pagedSource != null ? pagedSource.get(position) : filePaths.get(position);
     }
 
     /**
@@ -219,16 +612,16 @@ public class GalleryRecyclerAdapter extends RecyclerView.Adapter<GalleryRecycler
      * @param position Position of the item to toggle the selection status for
      */
     public void toggleSelection(int position) {
-        if (selectedItems.get(position, false)) {
-            selectedItems.delete(position);
-        } else {
-            selectedItems.put(position, true);
-        }
+        final int id = getItemIntId(position);
+        if (id == NO_ITEM_ID) return;
+        selection.toggle(id);
         notifyItemChanged(position);
     }
 
     @Override
-    public int getItemCount() { return filePaths.size(); }
+    public int getItemCount() {
+        return pagedSource != null ? pagedSource.getCount() : filePaths.size();
+    }
 
     public void setOnItemClickListener(OnItemClickListener listener){
         onItemClickListener = listener;
@@ -236,6 +629,22 @@ public class GalleryRecyclerAdapter extends RecyclerView.Adapter<GalleryRecycler
 
     public OnItemClickListener getOnItemClickListener(){ return onItemClickListener; }
 
+    /**
+     * Set listener notified when selection was changed by the adapter itself, e.g. selection
+     * changed in paged mode or selected images removed from the index
+     * @param listener Listener, or null
+     */
+    public void setOnSelectionChangedListener(OnSelectionChangedListener listener){
+        onSelectionChangedListener = listener;
+    }
+
+    /**
+     * Interface of callback when selection was changed asynchronously
+     */
+    public interface OnSelectionChangedListener{
+        void onSelectionChanged();
+    }
+
     /**
      * Interface of callbacks when item is selected, or multiple choice mode is triggered
      */
@@ -250,38 +659,183 @@ public class GalleryRecyclerAdapter extends RecyclerView.Adapter<GalleryRecycler
      * @param path path to the image
      */
     public void add(int location, String path){
+        if (pagedSource != null) {
+            pagedSource.reload();
+            return;
+        }
         filePaths.add(location, path);
         notifyItemInserted(location);
     }
 
+    /**
+     * @return Copy of the list of image paths, in adapter order
+     * @throws IllegalStateException in paged mode, when paths are not held in memory
+     */
+    public List<String> getItemPaths(){
+        if (pagedSource != null) throw new IllegalStateException("Paths are paged");
+        return new ArrayList<>(filePaths);
+    }
+
+    /**
+     * Adds image paths at the end of the list, with single notification for the whole range
+     * @param paths paths to the images
+     */
+    public void addAll(Collection<String> paths){
+        if (paths.isEmpty()) return;
+        if (pagedSource != null) {
+            pagedSource.reload();
+            return;
+        }
+        final int positionStart = filePaths.size();
+        filePaths.addAll(paths);
+        notifyItemRangeInserted(positionStart, paths.size());
+    }
+
+    /**
+     * Inserts image paths at given position, with single notification for the whole range
+     * @param positionStart position of the first inserted path
+     * @param paths paths to the images
+     */
+    public void insertRange(int positionStart, Collection<String> paths){
+        if (paths.isEmpty()) return;
+        if (pagedSource != null) {
+            pagedSource.reload();
+            return;
+        }
+        filePaths.addAll(positionStart, paths);
+        notifyItemRangeInserted(positionStart, paths.size());
+    }
+
+    /**
+     * Replaces all image paths, only ranges that differ are notified. For long lists calculate
+     * the difference off the main UI thread with calculateDiff and pass it to applyDiff.
+     * @param paths unique paths to the images
+     */
+    public void replaceAll(List<String> paths){
+        if (pagedSource != null) {
+            pagedSource.reload();
+            return;
+        }
+        applyDiff(PathListDiff.calculate(getItemPaths(), paths), getModificationCount());
+    }
+
+    /**
+     * @return Number of modifications of the list of paths, to find out if the adapter was
+     * modified while a difference was calculated from its copy
+     */
+    public int getModificationCount() {
+        return filePaths.getModificationCount();
+    }
+
+    /**
+     * Calculates difference between given lists, can be called on any thread
+     * @param oldPaths paths shown by the adapter, e.g. copy returned by getItemPaths, taken when
+     *                 adapter had modification count passed to applyDiff
+     * @param newPaths unique paths to be shown
+     * @return difference to be passed to applyDiff on the main UI thread
+     */
+    public static PathListDiff calculateDiff(List<String> oldPaths, List<String> newPaths){
+        return PathListDiff.calculate(oldPaths, newPaths);
+    }
+
+    /**
+     * Replaces all image paths with the new list of given difference. If adapter was modified
+     * since the difference was calculated, it's calculated again.
+     * @param diff difference calculated from paths shown by the adapter
+     * @param modificationCount modification count of the adapter when it showed old paths of the
+     *                          difference
+     */
+    public void applyDiff(PathListDiff diff, int modificationCount){
+        if (pagedSource != null) {
+            pagedSource.reload();
+            return;
+        }
+        // Comparing paths would build every path string of the table
+        if (modificationCount != getModificationCount()) {
+            diff = PathListDiff.calculate(getItemPaths(), diff.getNewList());
+        }
+        if (diff.isEmpty()) return;
+        filePaths.replaceAll(diff.getNewList());
+        if (selection.getCount() > 0) {
+            // Drop selection of removed items
+            final BitSet ids = new BitSet();
+            for (int i = 0; i < filePaths.size(); i++) {
+                ids.set(getItemIntId(i));
+            }
+            selection.retainAll(ids);
+        }
+        diff.dispatchUpdatesTo(this);
+    }
+
     /*
      * Inner class representing each children in recycler view
      */
     public static class ItemHolder extends RecyclerView.ViewHolder implements View.OnClickListener,
             View.OnLongClickListener{
 
+        /*
+         * Initial capacity of path builder, enough for paths of usual gallery folders
+         */
+        private static final int PATH_CAPACITY = 128;
+
         private GalleryRecyclerAdapter parent;
         private ImageView imageView;
-        private String itemPath;
         private View selectedOverlay;
 
+        /*
+         * Path of the bound item, read into reused builder, empty while path is not known.
+         * itemPath String is created from it only when needed, e.g. to decode the thumbnail.
+         */
+        private final StringBuilder pathBuffer = new StringBuilder(PATH_CAPACITY);
+        private String itemPath;
+
+        /*
+         * Loads thumbnails into imageView, reused for every bound item
+         */
+        private final BitmapLoaderTask loaderTask;
+
+        /*
+         * Stable id of the item pathBuffer belongs to
+         */
+        private int itemId = NO_ITEM_ID;
+
+        /*
+         * Item was bound in fling mode and its thumbnail was not loaded yet
+         */
+        private boolean deferred;
+
         public ItemHolder(SquareCardView cardView, GalleryRecyclerAdapter parent) {
             super(cardView);
 
             this.parent = parent;
             imageView = (ImageView) cardView.findViewById(R.id.item_image);
             selectedOverlay = cardView.findViewById(R.id.selectedOverlay);
+            loaderTask = new BitmapLoaderTask(imageView, THUMBNAIL_SIZE);
 
             itemView.setOnClickListener(this);
             itemView.setOnLongClickListener(this);
+            // enable multiple choice mode
+            itemView.setLongClickable(true);
         }
 
-        public void setItemPath(String itemUri){ this.itemPath = itemUri; }
+        public void setItemPath(String itemUri){
+            this.itemPath = itemUri;
+            pathBuffer.setLength(0);
+            if (itemUri != null) pathBuffer.append(itemUri);
+        }
 
         public String getItemUri(){
+            if (itemPath == null && pathBuffer.length() > 0) itemPath = pathBuffer.toString();
             return this.itemPath;
         }
 
+        /*
+         * Path of the bound item without creating String, which is reused when it exists already
+         */
+        private CharSequence getItemPathChars() {
+            return itemPath != null ? itemPath : pathBuffer;
+        }
+
         @Override
         public void onClick(View v) {
             final OnItemClickListener listener = parent.getOnItemClickListener();
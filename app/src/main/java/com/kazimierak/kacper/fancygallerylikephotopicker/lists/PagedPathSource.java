@@ -0,0 +1,480 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.lists;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.GalleryIndex;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Image paths read from GalleryIndex in fixed-size pages, so the adapter does not hold every path
+ * in memory. Only pages around the visible range are kept, pages far off the screen are evicted
+ * and next pages in the scroll direction are prefetched. Number of kept paths does not depend on
+ * the size of the gallery.
+ *
+ * Pages are read on a single background thread, in order of requests. Page that is not loaded
+ * yet has no paths, its items are shown as placeholders and the listener is notified when the
+ * page arrives. Must be used on the main UI thread only.
+ *
+ * Row ids of first and last image of every read page are kept, so page next to a page read before
+ * is read by row id instead of by offset, which would skip all preceding rows of the index.
+ *
+ * Row id of every loaded item is its stable id, it does not change when other images are added
+ * or removed, so it identifies the item across reloads.
+ */
+
+public class PagedPathSource {
+
+    private final static String DEBUG_TAG = "PagedPathSource";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Number of paths in single page
+     */
+    public static final int PAGE_SIZE = 256;
+
+    /**
+     * Id of the item whose page is not loaded, row ids of the index start at 1
+     */
+    public static final long NO_ID = 0;
+
+    /**
+     * Number of pages kept on both sides of visible pages
+     */
+    private static final int KEPT_PAGES = 2;
+
+    /**
+     * Number of pages loaded ahead in the scroll direction, at most KEPT_PAGES
+     */
+    private static final int PREFETCH_PAGES = 2;
+
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private static ThreadPoolExecutor pageExecutor;
+
+    private final GalleryIndex index;
+    private final OnPagesChangedListener listener;
+
+    /*
+     * Loaded pages by page number, and pages being read
+     */
+    private final SparseArray<Page> pages = new SparseArray<>();
+    private final SparseBooleanArray loadingPages = new SparseBooleanArray();
+
+    /*
+     * Row ids of first and last image of pages read since last reload by page number, 0 if page
+     * was not read
+     */
+    private long[] firstIds = new long[0];
+    private long[] lastIds = new long[0];
+
+    /*
+     * Last page read synchronously, it's not counted as kept page
+     */
+    private Page syncPage;
+    private int syncPageNumber = -1;
+
+    private int count;
+    private int firstVisiblePage;
+    private int lastVisiblePage;
+    private int firstVisiblePosition;
+
+    /*
+     * Incremented by every reload, pages read before it are dropped
+     */
+    private int generation;
+
+    /**
+     * Receives changes of the paths, called on the main UI thread
+     */
+    public interface OnPagesChangedListener {
+
+        /**
+         * Paths of given range were loaded, items showing placeholders should be bound again
+         */
+        void onPageLoaded(int positionStart, int itemCount);
+
+        /**
+         * Number of items changed and all pages were dropped
+         */
+        void onReloaded();
+    }
+
+    /**
+     * Receives paths resolved by resolve, on the main UI thread
+     */
+    public interface OnPathsResolvedListener {
+        void onPathsResolved(List<String> paths);
+    }
+
+    /**
+     * Receives row ids read by readIds, on the main UI thread
+     */
+    public interface OnIdsReadListener {
+        void onIdsRead(BitSet ids);
+    }
+
+    /*
+     * Paths of single page and their row ids
+     */
+    private static final class Page {
+        final String[] paths;
+        final long[] ids;
+
+        Page(String[] paths, long[] ids) {
+            this.paths = paths;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * @param index Index the paths are read from, in index order
+     * @param listener Listener receiving changes of the paths
+     */
+    public PagedPathSource(GalleryIndex index, OnPagesChangedListener listener) {
+        this.index = index;
+        this.listener = listener;
+    }
+
+    /**
+     * @return Number of items, as read by the last reload
+     */
+    public int getCount() { return count; }
+
+    /**
+     * Get path of the item without blocking. If its page is not loaded, loading is started.
+     *
+     * @param position Position of the item
+     * @return Path of the item, or null if its page is not loaded yet
+     */
+    public String get(int position) {
+        final int pageNumber = position / PAGE_SIZE;
+        final Page page = pages.get(pageNumber);
+        if (page == null) {
+            load(pageNumber);
+            return null;
+        }
+        final int offset = position % PAGE_SIZE;
+        return offset < page.paths.length ? page.paths[offset] : null;
+    }
+
+    /**
+     * Get row id of the item without blocking, loading is not started
+     *
+     * @param position Position of the item
+     * @return Row id of the item, or NO_ID if its page is not loaded
+     */
+    public long getId(int position) {
+        final Page page = pages.get(position / PAGE_SIZE);
+        final int offset = position % PAGE_SIZE;
+        return page != null && offset < page.ids.length ? page.ids[offset] : NO_ID;
+    }
+
+    /**
+     * Get path of the item, reading its page on the calling thread if needed. Meant for single
+     * items or items in ascending order, e.g. selected ones, as the last read page is reused.
+     *
+     * @param position Position of the item
+     * @return Path of the item, or null if index has fewer items now
+     */
+    public String getSync(int position) {
+        final int pageNumber = position / PAGE_SIZE;
+        Page page = pages.get(pageNumber);
+        if (page == null) {
+            if (syncPageNumber != pageNumber) {
+                final GalleryIndex.PathPage read = readPage(pageNumber,
+                        getAfterId(lastIds, pageNumber), getBeforeId(firstIds, pageNumber));
+                syncPage = storePageIds(firstIds, lastIds, pageNumber, read);
+                syncPageNumber = pageNumber;
+            }
+            page = syncPage;
+        }
+        final int offset = position % PAGE_SIZE;
+        return offset < page.paths.length ? page.paths[offset] : null;
+    }
+
+    /**
+     * Get paths of items at given positions without blocking, e.g. of selected items. Loaded pages
+     * are used as they are, other pages are read on the background thread.
+     *
+     * @param positions Positions of the items, in ascending order
+     * @param listener Listener receiving paths, items removed from the index in the meantime are
+     *                 skipped
+     */
+    public void resolve(final int[] positions, final OnPathsResolvedListener listener) {
+        final SparseArray<Page> loadedPages = new SparseArray<>(pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            loadedPages.put(pages.keyAt(i), pages.valueAt(i));
+        }
+        final long[] knownFirstIds = firstIds.clone();
+        final long[] knownLastIds = lastIds.clone();
+        getPageExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<String> paths = new ArrayList<>(positions.length);
+                int pageNumber = -1;
+                Page page = null;
+                for (int position : positions) {
+                    if (position / PAGE_SIZE != pageNumber) {
+                        pageNumber = position / PAGE_SIZE;
+                        page = loadedPages.get(pageNumber);
+                        if (page == null) {
+                            // Ascending positions read consecutive pages by row id
+                            final GalleryIndex.PathPage read = readPage(pageNumber,
+                                    getAfterId(knownLastIds, pageNumber),
+                                    getBeforeId(knownFirstIds, pageNumber));
+                            page = storePageIds(knownFirstIds, knownLastIds, pageNumber, read);
+                        }
+                    }
+                    final int offset = position % PAGE_SIZE;
+                    if (offset < page.paths.length) paths.add(page.paths[offset]);
+                }
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onPathsResolved(paths);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Get paths of items with given row ids without blocking, e.g. of selected items. Paths are
+     * read on the background thread, after reloads requested before.
+     *
+     * @param ids Row ids of the items
+     * @param listener Listener receiving paths in index order, items removed from the index in
+     *                 the meantime are skipped
+     */
+    public void resolveIds(BitSet ids, final OnPathsResolvedListener listener) {
+        final BitSet resolvedIds = (BitSet) ids.clone();
+        getPageExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<String> paths = index.getImagePaths(resolvedIds);
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onPathsResolved(paths);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read row ids of all items without blocking, e.g. to select all items. Ids are read on the
+     * background thread, after reloads requested before.
+     *
+     * @param listener Listener receiving the row ids
+     */
+    public void readIds(final OnIdsReadListener listener) {
+        getPageExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final BitSet ids = index.getImageIds();
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onIdsRead(ids);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Update range of visible positions. Pages far from it are evicted, next pages in the scroll
+     * direction are prefetched.
+     *
+     * @param first First visible position
+     * @param last Last visible position
+     */
+    public void setVisibleRange(int first, int last) {
+        if (count == 0) return;
+        final boolean scrollingBack = first < firstVisiblePosition;
+        firstVisiblePosition = first;
+        firstVisiblePage = first / PAGE_SIZE;
+        lastVisiblePage = last / PAGE_SIZE;
+
+        for (int i = pages.size() - 1; i >= 0; i--) {
+            if (!isKept(pages.keyAt(i))) pages.removeAt(i);
+        }
+
+        final int lastPage = (count - 1) / PAGE_SIZE;
+        for (int page = firstVisiblePage; page <= lastVisiblePage; page++) {
+            load(page);
+        }
+        for (int i = 1; i <= PREFETCH_PAGES; i++) {
+            final int page = scrollingBack ? firstVisiblePage - i : lastVisiblePage + i;
+            if (page >= 0 && page <= lastPage) load(page);
+        }
+    }
+
+    /**
+     * Read number of items again and drop all pages, called after the index was updated
+     */
+    public void reload() {
+        getPageExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final int newCount = index.getImageCount();
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        generation++;
+                        count = newCount;
+                        pages.clear();
+                        loadingPages.clear();
+                        syncPage = null;
+                        syncPageNumber = -1;
+                        final int pageCount = (newCount + PAGE_SIZE - 1) / PAGE_SIZE;
+                        firstIds = new long[pageCount];
+                        lastIds = new long[pageCount];
+                        if (LOCAL_LOG) Log.d(DEBUG_TAG, "Reloaded, items: " + newCount);
+                        listener.onReloaded();
+                    }
+                });
+            }
+        });
+    }
+
+    /*
+     * Start reading of given page, unless it's loaded or being read
+     */
+    private void load(final int pageNumber) {
+        if (pages.get(pageNumber) != null || loadingPages.get(pageNumber)) return;
+        loadingPages.put(pageNumber, true);
+        final int loadGeneration = generation;
+        final long afterId = getAfterId(lastIds, pageNumber);
+        final long beforeId = getBeforeId(firstIds, pageNumber);
+        getPageExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final GalleryIndex.PathPage page = readPage(pageNumber, afterId, beforeId);
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageRead(loadGeneration, pageNumber, page);
+                    }
+                });
+            }
+        });
+    }
+
+    /*
+     * Keep page read on background thread, if it's still needed
+     */
+    private void onPageRead(int loadGeneration, int pageNumber, GalleryIndex.PathPage read) {
+        if (loadGeneration != generation) return;
+        loadingPages.delete(pageNumber);
+        final Page page = storePageIds(firstIds, lastIds, pageNumber, read);
+        if (!isKept(pageNumber)) return;
+
+        pages.put(pageNumber, page);
+        final int positionStart = pageNumber * PAGE_SIZE;
+        final int itemCount = Math.min(page.paths.length, count - positionStart);
+        if (itemCount > 0) listener.onPageLoaded(positionStart, itemCount);
+    }
+
+    private boolean isKept(int pageNumber) {
+        return pageNumber >= firstVisiblePage - KEPT_PAGES
+                && pageNumber <= lastVisiblePage + KEPT_PAGES;
+    }
+
+    /*
+     * Row id of the last image of previous page, 0 if previous page was not read
+     */
+    private static long getAfterId(long[] lastIds, int pageNumber) {
+        return pageNumber > 0 && pageNumber <= lastIds.length ? lastIds[pageNumber - 1] : 0;
+    }
+
+    /*
+     * Row id of the first image of next page, 0 if next page was not read
+     */
+    private static long getBeforeId(long[] firstIds, int pageNumber) {
+        return pageNumber + 1 < firstIds.length ? firstIds[pageNumber + 1] : 0;
+    }
+
+    /*
+     * Remember row ids of first and last image of read page, returns the page
+     */
+    private static Page storePageIds(long[] firstIds, long[] lastIds, int pageNumber,
+                                     GalleryIndex.PathPage read) {
+        if (pageNumber < firstIds.length && !read.paths.isEmpty()) {
+            firstIds[pageNumber] = read.firstId;
+            lastIds[pageNumber] = read.lastId;
+        }
+        return new Page(read.paths.toArray(new String[read.paths.size()]), read.ids);
+    }
+
+    /*
+     * Read page next to a page read before by row id, or by offset if there is no such page, e.g.
+     * the first page after reload
+     */
+    private GalleryIndex.PathPage readPage(int pageNumber, long afterId, long beforeId) {
+        if (afterId != 0) return index.getImagePageAfter(afterId, PAGE_SIZE);
+        if (beforeId != 0) return index.getImagePageBefore(beforeId, PAGE_SIZE);
+        return index.getImagePage(pageNumber * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    /*
+     * Single thread shared by all sources, so pages are read in order of requests
+     */
+    private static synchronized ThreadPoolExecutor getPageExecutor() {
+        if (pageExecutor == null) {
+            pageExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    runnable.run();
+                                }
+                            }, "Page loader");
+                        }
+                    });
+            pageExecutor.allowCoreThreadTimeOut(true);
+        }
+        return pageExecutor;
+    }
+}
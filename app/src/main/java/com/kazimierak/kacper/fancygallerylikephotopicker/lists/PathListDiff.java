@@ -0,0 +1,212 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.lists;
+
+import android.support.v7.widget.RecyclerView;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Difference between two lists of image paths, expressed as ranges of removed and inserted items,
+ * so adapter can be updated with few range notifications instead of notifyDataSetChanged.
+ *
+ * Paths in the list are unique, so items kept in place are the longest increasing subsequence of
+ * old positions taken in new order, found in O(n log n). Every other item is removed or inserted,
+ * moved item is removed from old position and inserted at new one.
+ *
+ * Diff can be calculated on any thread, lists must not be modified in the meantime.
+ */
+
+public final class PathListDiff {
+
+    private final List<String> oldList;
+    private final List<String> newList;
+
+    /*
+     * Pairs of (position, count), removals in descending order of positions, so every removal
+     * does not shift the following ones, insertions in ascending order
+     */
+    private final int[] removedRanges;
+    private final int removedRangeCount;
+    private final int[] insertedRanges;
+    private final int insertedRangeCount;
+
+    private PathListDiff(List<String> oldList, List<String> newList, int[] removedRanges,
+                         int removedRangeCount, int[] insertedRanges, int insertedRangeCount) {
+        this.oldList = oldList;
+        this.newList = newList;
+        this.removedRanges = removedRanges;
+        this.removedRangeCount = removedRangeCount;
+        this.insertedRanges = insertedRanges;
+        this.insertedRangeCount = insertedRangeCount;
+    }
+
+    /**
+     * Calculate difference between two lists of unique paths
+     *
+     * @param oldList Paths shown now
+     * @param newList Paths to be shown
+     * @return Difference transforming old list into the new one
+     */
+    public static PathListDiff calculate(List<String> oldList, List<String> newList) {
+        final int oldSize = oldList.size();
+        final int newSize = newList.size();
+
+        final Map<String, Integer> oldPositions = new HashMap<>(oldSize * 2);
+        for (int i = 0; i < oldSize; i++) {
+            oldPositions.put(oldList.get(i), i);
+        }
+
+        // Old position of every new item, -1 for items not present in old list
+        final int[] sources = new int[newSize];
+        for (int i = 0; i < newSize; i++) {
+            final Integer oldPosition = oldPositions.get(newList.get(i));
+            sources[i] = oldPosition != null ? oldPosition : -1;
+        }
+
+        final boolean[] keptNew = new boolean[newSize];
+        final boolean[] keptOld = new boolean[oldSize];
+        markLongestIncreasingSubsequence(sources, keptNew, keptOld);
+
+        final int[] removed = new int[2 * oldSize];
+        int removedCount = 0;
+        for (int i = oldSize - 1; i >= 0; i--) {
+            if (keptOld[i]) continue;
+            int start = i;
+            while (start > 0 && !keptOld[start - 1]) start--;
+            removed[2 * removedCount] = start;
+            removed[2 * removedCount + 1] = i - start + 1;
+            removedCount++;
+            i = start;
+        }
+
+        final int[] inserted = new int[2 * newSize];
+        int insertedCount = 0;
+        for (int i = 0; i < newSize; i++) {
+            if (keptNew[i]) continue;
+            int end = i;
+            while (end + 1 < newSize && !keptNew[end + 1]) end++;
+            inserted[2 * insertedCount] = i;
+            inserted[2 * insertedCount + 1] = end - i + 1;
+            insertedCount++;
+            i = end;
+        }
+
+        return new PathListDiff(oldList, newList, removed, removedCount, inserted, insertedCount);
+    }
+
+    /*
+     * Mark items of the longest increasing subsequence of non-negative sources, both at their new
+     * and old positions (patience sorting)
+     */
+    private static void markLongestIncreasingSubsequence(int[] sources, boolean[] keptNew,
+                                                         boolean[] keptOld) {
+        // tails[k] - new position of the smallest tail of increasing subsequence of length k + 1
+        final int[] tails = new int[sources.length];
+        final int[] previous = new int[sources.length];
+        int length = 0;
+
+        for (int i = 0; i < sources.length; i++) {
+            final int source = sources[i];
+            if (source < 0) continue;
+
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (sources[tails[middle]] < source) low = middle + 1;
+                else high = middle;
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) length++;
+        }
+
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            keptNew[i] = true;
+            keptOld[sources[i]] = true;
+        }
+    }
+
+    /**
+     * @return List the difference was calculated from
+     */
+    public List<String> getOldList() { return oldList; }
+
+    /**
+     * @return List the difference leads to
+     */
+    public List<String> getNewList() { return Collections.unmodifiableList(newList); }
+
+    /**
+     * @return true if lists are equal and no notification would be sent
+     */
+    public boolean isEmpty() { return removedRangeCount == 0 && insertedRangeCount == 0; }
+
+    /**
+     * Notify adapter about changes, in order that keeps positions of every notification valid.
+     * Adapter must already hold the new list.
+     *
+     * @param adapter Adapter to be notified
+     */
+    public void dispatchUpdatesTo(final RecyclerView.Adapter<?> adapter) {
+        dispatchUpdatesTo(new RangeCallback() {
+            @Override
+            public void onRemoved(int position, int count) {
+                adapter.notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onInserted(int position, int count) {
+                adapter.notifyItemRangeInserted(position, count);
+            }
+        });
+    }
+
+    /*
+     * Pass ranges to the callback in the same order adapter is notified
+     */
+    void dispatchUpdatesTo(RangeCallback callback) {
+        for (int i = 0; i < removedRangeCount; i++) {
+            callback.onRemoved(removedRanges[2 * i], removedRanges[2 * i + 1]);
+        }
+        for (int i = 0; i < insertedRangeCount; i++) {
+            callback.onInserted(insertedRanges[2 * i], insertedRanges[2 * i + 1]);
+        }
+    }
+
+    /*
+     * Receives ranges of the difference, positions are valid at the time of the call
+     */
+    interface RangeCallback {
+        void onRemoved(int position, int count);
+
+        void onInserted(int position, int count);
+    }
+}
@@ -0,0 +1,358 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.lists;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Compact list of image paths. Photos of a gallery live in few directories, so every directory
+ * path is stored once in the directory table, and item keeps only index of its directory and its
+ * file name. File names of all items are packed into single byte array, one byte per character
+ * when all characters of the name fit in Latin-1 (almost always), two bytes otherwise. Item costs
+ * a few ints and bytes of its name instead of String object with full path and its own char
+ * array.
+ *
+ * Every item also has stable id, assigned when item is added and kept until it's removed.
+ *
+ * Path String is created on every get, getPath reads it into reusable builder instead. Removed
+ * names leave garbage in the packed array, which is compacted when it takes more than half of
+ * the array.
+ */
+
+public class PathTable extends AbstractList<String> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /*
+     * Directory paths with trailing separator, and their indexes. Path without separator has
+     * empty directory.
+     */
+    private final List<String> directories = new ArrayList<>();
+    private final Map<String, Integer> directoryIndexes = new HashMap<>();
+
+    /*
+     * Items, by position
+     */
+    private int[] directoryOf = new int[INITIAL_CAPACITY];
+    private int[] nameOffset = new int[INITIAL_CAPACITY];
+
+    /*
+     * Number of characters of the name, negative for names stored with two bytes per character
+     */
+    private short[] nameLength = new short[INITIAL_CAPACITY];
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /*
+     * Packed file names
+     */
+    private byte[] names = new byte[INITIAL_CAPACITY * 16];
+    private int namesLength;
+    private int garbageLength;
+
+    private int nextId;
+
+    public PathTable() {}
+
+    @Override
+    public String get(int position) {
+        checkPosition(position, size);
+        final int length = directories.get(directoryOf[position]).length()
+                + Math.abs(nameLength[position]);
+        return getPath(position, new StringBuilder(length)).toString();
+    }
+
+    /**
+     * Read path of the item into given builder, nothing is allocated when builder has enough
+     * capacity, e.g. while binding grid cells
+     *
+     * @param position Position of the item
+     * @param path Builder receiving the path, its previous content is replaced
+     * @return Given builder
+     */
+    public StringBuilder getPath(int position, StringBuilder path) {
+        checkPosition(position, size);
+        path.setLength(0);
+        path.append(directories.get(directoryOf[position]));
+
+        final int length = Math.abs(nameLength[position]);
+        int offset = nameOffset[position];
+        if (nameLength[position] >= 0) {
+            for (int i = 0; i < length; i++) {
+                path.append((char) (names[offset++] & 0xff));
+            }
+        } else {
+            for (int i = 0; i < length; i++, offset += 2) {
+                path.append((char) (((names[offset] & 0xff) << 8) | (names[offset + 1] & 0xff)));
+            }
+        }
+        return path;
+    }
+
+    /**
+     * @param position Position of the item
+     * @return Stable id of the item
+     */
+    public int getId(int position) {
+        checkPosition(position, size);
+        return ids[position];
+    }
+
+    /**
+     * @param position Position of the item
+     * @return Index of item's directory, equal for items of the same directory
+     */
+    public int getDirectoryIndex(int position) {
+        checkPosition(position, size);
+        return directoryOf[position];
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public void add(int position, String path) {
+        checkPosition(position, size + 1);
+        openGap(position, 1);
+        set(position, path, nextId++);
+    }
+
+    @Override
+    public boolean addAll(int position, Collection<? extends String> paths) {
+        checkPosition(position, size + 1);
+        if (paths.isEmpty()) return false;
+        openGap(position, paths.size());
+        for (String path : paths) {
+            set(position++, path, nextId++);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends String> paths) {
+        return addAll(size, paths);
+    }
+
+    @Override
+    public String remove(int position) {
+        final String path = get(position);
+        removeRange(position, position + 1);
+        return path;
+    }
+
+    @Override
+    protected void removeRange(int fromPosition, int toPosition) {
+        if (fromPosition >= toPosition) return;
+        for (int i = fromPosition; i < toPosition; i++) {
+            garbageLength += getByteLength(i);
+        }
+        final int count = toPosition - fromPosition;
+        System.arraycopy(directoryOf, toPosition, directoryOf, fromPosition, size - toPosition);
+        System.arraycopy(nameOffset, toPosition, nameOffset, fromPosition, size - toPosition);
+        System.arraycopy(nameLength, toPosition, nameLength, fromPosition, size - toPosition);
+        System.arraycopy(ids, toPosition, ids, fromPosition, size - toPosition);
+        size -= count;
+        modCount++;
+        compactNamesIfNeeded();
+    }
+
+    @Override
+    public void clear() {
+        directories.clear();
+        directoryIndexes.clear();
+        size = 0;
+        namesLength = 0;
+        garbageLength = 0;
+        modCount++;
+    }
+
+    /**
+     * Remove items at given positions in single pass, remaining items are moved at once
+     *
+     * @param sortedPositions Positions of removed items in ascending order, duplicates are allowed
+     * @param count Number of used elements of sortedPositions
+     * @return Number of removed items
+     */
+    public int removePositions(int[] sortedPositions, int count) {
+        if (count == 0) return 0;
+        int write = sortedPositions[0];
+        int next = 0;
+        for (int read = sortedPositions[0]; read < size; read++) {
+            if (next < count && sortedPositions[next] == read) {
+                garbageLength += getByteLength(read);
+                while (next < count && sortedPositions[next] == read) next++;
+            } else {
+                directoryOf[write] = directoryOf[read];
+                nameOffset[write] = nameOffset[read];
+                nameLength[write] = nameLength[read];
+                ids[write] = ids[read];
+                write++;
+            }
+        }
+        final int removedCount = size - write;
+        size = write;
+        modCount++;
+        compactNamesIfNeeded();
+        return removedCount;
+    }
+
+    /**
+     * Replace all items with given paths. Items whose paths are still present keep their ids.
+     *
+     * @param paths New paths
+     */
+    public void replaceAll(List<String> paths) {
+        final Map<String, Integer> oldIds = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            oldIds.put(get(i), ids[i]);
+        }
+        clear();
+        ensureCapacity(paths.size());
+        for (String path : paths) {
+            final Integer id = oldIds.get(path);
+            set(size++, path, id != null ? id : nextId++);
+        }
+    }
+
+    /**
+     * @return Number of structural modifications of the table, changes whenever items are added
+     * or removed
+     */
+    public int getModificationCount() { return modCount; }
+
+    /**
+     * @return Estimated heap used by the table, in bytes
+     */
+    public long getMemoryUsage() {
+        long bytes = 4L * directoryOf.length + 4L * nameOffset.length + 2L * nameLength.length
+                + 4L * ids.length + names.length;
+        for (String directory : directories) {
+            // Object and array headers, hash map entry
+            bytes += 2L * directory.length() + 80;
+        }
+        return bytes;
+    }
+
+    /*
+     * Store path at given position, which is already counted in size
+     */
+    private void set(int position, String path, int id) {
+        final int separator = path.lastIndexOf('/');
+        final String directory = path.substring(0, separator + 1);
+        Integer directoryIndex = directoryIndexes.get(directory);
+        if (directoryIndex == null) {
+            directoryIndex = directories.size();
+            directories.add(directory);
+            directoryIndexes.put(directory, directoryIndex);
+        }
+
+        final int length = path.length() - separator - 1;
+        if (length > Short.MAX_VALUE) throw new IllegalArgumentException("File name too long");
+        boolean wide = false;
+        for (int i = separator + 1; i < path.length() && !wide; i++) {
+            wide = path.charAt(i) > 0xff;
+        }
+        final int byteLength = wide ? 2 * length : length;
+        if (namesLength + byteLength > names.length) {
+            final int grown = names.length + (names.length >> 1);
+            names = Arrays.copyOf(names, Math.max(grown, namesLength + byteLength));
+        }
+
+        int offset = namesLength;
+        for (int i = separator + 1; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (wide) names[offset++] = (byte) (c >> 8);
+            names[offset++] = (byte) c;
+        }
+
+        directoryOf[position] = directoryIndex;
+        nameOffset[position] = namesLength;
+        nameLength[position] = (short) (wide ? -length : length);
+        ids[position] = id;
+        namesLength += byteLength;
+    }
+
+    /*
+     * Shift items from given position, size is increased by count
+     */
+    private void openGap(int position, int count) {
+        ensureCapacity(size + count);
+        System.arraycopy(directoryOf, position, directoryOf, position + count, size - position);
+        System.arraycopy(nameOffset, position, nameOffset, position + count, size - position);
+        System.arraycopy(nameLength, position, nameLength, position + count, size - position);
+        System.arraycopy(ids, position, ids, position + count, size - position);
+        size += count;
+        modCount++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) return;
+        final int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1));
+        directoryOf = Arrays.copyOf(directoryOf, newCapacity);
+        nameOffset = Arrays.copyOf(nameOffset, newCapacity);
+        nameLength = Arrays.copyOf(nameLength, newCapacity);
+        ids = Arrays.copyOf(ids, newCapacity);
+    }
+
+    /*
+     * Rewrite names of remaining items when removed ones take more than half of the array
+     */
+    private void compactNamesIfNeeded() {
+        if (garbageLength <= namesLength / 2) return;
+        final int capacity = Math.max(INITIAL_CAPACITY, (namesLength - garbageLength) * 2);
+        final byte[] compacted = new byte[capacity];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            final int byteLength = getByteLength(i);
+            System.arraycopy(names, nameOffset[i], compacted, length, byteLength);
+            nameOffset[i] = length;
+            length += byteLength;
+        }
+        names = compacted;
+        namesLength = length;
+        garbageLength = 0;
+    }
+
+    /*
+     * Number of bytes taken by the name of the item
+     */
+    private int getByteLength(int position) {
+        final int length = nameLength[position];
+        return length >= 0 ? length : -2 * length;
+    }
+
+    private static void checkPosition(int position, int limit) {
+        if (position < 0 || position >= limit) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", size: " + limit);
+        }
+    }
+}
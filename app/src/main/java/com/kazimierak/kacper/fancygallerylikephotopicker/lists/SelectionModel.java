@@ -0,0 +1,126 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.lists;
+
+import java.util.BitSet;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Selection of adapter items, stored as a bitset indexed by stable item ids. Checking and changing
+ * selection of an item is O(1) and does not allocate, so it can be done on every bind.
+ *
+ * Ids do not change when items are inserted or removed, so selection follows items instead of
+ * positions.
+ */
+
+public class SelectionModel {
+
+    private final BitSet selected = new BitSet();
+    private int count;
+
+    public SelectionModel() {}
+
+    /**
+     * @param id Stable id of the item
+     * @return true if the item is selected
+     */
+    public boolean isSelected(int id) {
+        return selected.get(id);
+    }
+
+    /**
+     * @param id Stable id of the item
+     * @param isSelected New selection state of the item
+     * @return true if selection state of the item changed
+     */
+    public boolean setSelected(int id, boolean isSelected) {
+        if (selected.get(id) == isSelected) return false;
+        selected.set(id, isSelected);
+        count += isSelected ? 1 : -1;
+        return true;
+    }
+
+    /**
+     * @param id Stable id of the item
+     * @return New selection state of the item
+     */
+    public boolean toggle(int id) {
+        final boolean isSelected = !selected.get(id);
+        setSelected(id, isSelected);
+        return isSelected;
+    }
+
+    /**
+     * @return Number of selected items
+     */
+    public int getCount() { return count; }
+
+    /**
+     * Select all given items
+     *
+     * @param ids Stable ids of selected items
+     */
+    public void selectAll(BitSet ids) {
+        selected.or(ids);
+        count = selected.cardinality();
+    }
+
+    /**
+     * Select given items that are not selected and unselect the selected ones, items that are
+     * not in given set are unselected
+     *
+     * @param ids Stable ids of all items
+     */
+    public void invert(BitSet ids) {
+        selected.xor(ids);
+        selected.and(ids);
+        count = selected.cardinality();
+    }
+
+    /**
+     * @return Copy of stable ids of selected items
+     */
+    public BitSet getSelectedIds() {
+        return (BitSet) selected.clone();
+    }
+
+    /**
+     * Unselect items that are not in given set
+     *
+     * @param ids Stable ids of items that can stay selected
+     */
+    public void retainAll(BitSet ids) {
+        selected.and(ids);
+        count = selected.cardinality();
+    }
+
+    /**
+     * Unselect all items
+     */
+    public void clear() {
+        selected.clear();
+        count = 0;
+    }
+}
@@ -0,0 +1,234 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.lists;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.BitmapMemoryCache;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.DecodeExecutor;
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.DecodeJob;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Decodes thumbnails of rows that are about to scroll into the grid, so they are in memory cache
+ * when their cells are bound. Scroll velocity is estimated from scroll callbacks, number of
+ * prefetched rows grows with velocity and is limited by free memory and size of memory cache.
+ *
+ * Prefetching stops when scroll direction is reversed, waiting prefetch decodes are cancelled
+ * and velocity is estimated again. Prefetch statistics are logged when scrolling stops.
+ *
+ * Above fling velocity nothing is prefetched and the adapter is switched to fling mode, cells
+ * show preview colors until the scroll slows down or stops.
+ */
+
+public class ThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+
+    private final static String DEBUG_TAG = "ThumbnailPrefetcher";
+    private static final boolean LOCAL_LOG = false;
+
+    /**
+     * Prefetched rows cover this time of scrolling at current velocity
+     */
+    private static final long LOOKAHEAD_MS = 500;
+
+    /**
+     * Part of memory cache, and of free heap, that prefetched thumbnails may take
+     */
+    private static final int MEMORY_FRACTION = 4;
+
+    /**
+     * Scroll events further apart are not used to estimate velocity
+     */
+    private static final long MAX_EVENT_INTERVAL_MS = 100;
+
+    /**
+     * Weight of the latest scroll event in estimated velocity
+     */
+    private static final float VELOCITY_SMOOTHING = 0.3f;
+
+    /**
+     * Fling mode starts above this velocity, and ends below half of it
+     */
+    private static final float FLING_ROWS_PER_SECOND = 20;
+
+    private final Context context;
+    private final GalleryRecyclerAdapter adapter;
+
+    /*
+     * Scroll direction, 1 towards the end of the list, -1 towards the start, 0 unknown
+     */
+    private int direction;
+
+    /*
+     * Estimated velocity in pixels per millisecond
+     */
+    private float velocity;
+    private long lastEventTime;
+
+    /*
+     * Positions prefetched since the direction was set
+     */
+    private int firstRequested = 0;
+    private int lastRequested = -1;
+
+    /**
+     * @param context Any context, application context is retained
+     * @param adapter Adapter of the grid, provides paths of prefetched items
+     */
+    public ThumbnailPrefetcher(Context context, GalleryRecyclerAdapter adapter) {
+        this.context = context.getApplicationContext();
+        this.adapter = adapter;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) return;
+        final long now = SystemClock.uptimeMillis();
+        final long interval = now - lastEventTime;
+        lastEventTime = now;
+
+        final int newDirection = dy > 0 ? 1 : -1;
+        if (newDirection != direction) {
+            // Rows prefetched ahead are behind now
+            if (direction != 0) stop();
+            direction = newDirection;
+            velocity = 0;
+            adapter.setFlingMode(false);
+            return;
+        }
+        if (interval <= 0 || interval > MAX_EVENT_INTERVAL_MS) return;
+
+        velocity += VELOCITY_SMOOTHING * (Math.abs(dy) / (float) interval - velocity);
+        final View child = recyclerView.getChildAt(0);
+        if (child == null || child.getHeight() == 0) return;
+
+        final float rowsPerSecond = velocity * 1000 / child.getHeight();
+        if (!adapter.isFlingMode() && rowsPerSecond > FLING_ROWS_PER_SECOND) {
+            // Decodes are deferred, prefetched rows would fly by as well
+            adapter.setFlingMode(true);
+            stop();
+        } else if (adapter.isFlingMode() && rowsPerSecond < FLING_ROWS_PER_SECOND / 2) {
+            adapter.setFlingMode(false);
+        }
+        if (!adapter.isFlingMode()) prefetch(recyclerView);
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState != RecyclerView.SCROLL_STATE_IDLE) return;
+        // Prefetched decodes are kept, next scroll may go in any direction
+        direction = 0;
+        velocity = 0;
+        adapter.setFlingMode(false);
+        if (LOCAL_LOG) logStatistics();
+    }
+
+    /*
+     * Request thumbnails of rows ahead of the visible ones
+     */
+    private void prefetch(RecyclerView recyclerView) {
+        final GridLayoutManager layoutManager =
+                (GridLayoutManager) recyclerView.getLayoutManager();
+        final int first = layoutManager.findFirstVisibleItemPosition();
+        final int last = layoutManager.findLastVisibleItemPosition();
+        final View child = recyclerView.getChildAt(0);
+        if (first == RecyclerView.NO_POSITION || child == null || child.getHeight() == 0) return;
+
+        final int columns = layoutManager.getSpanCount();
+        final int rows = Math.max(1, Math.min(getMaxRows(columns),
+                (int) Math.ceil(velocity * LOOKAHEAD_MS / child.getHeight())));
+        final int from;
+        final int to;
+        if (direction > 0) {
+            from = last + 1;
+            to = Math.min(adapter.getItemCount() - 1, last + rows * columns);
+        } else {
+            from = Math.max(0, first - rows * columns);
+            to = first - 1;
+        }
+        if (from > to) return;
+        DecodeExecutor.getInstance().setPrefetchRange(from, to);
+
+        /*
+         * Executor runs most recently requested tasks first, so the nearest rows are requested
+         * last. Positions requested before in this direction are skipped.
+         */
+        if (direction > 0) {
+            for (int position = to; position >= from; position--) request(position);
+        } else {
+            for (int position = from; position <= to; position++) request(position);
+        }
+        if (firstRequested > lastRequested || from > lastRequested + 1
+                || to < firstRequested - 1) {
+            firstRequested = from;
+            lastRequested = to;
+        } else {
+            firstRequested = Math.min(firstRequested, from);
+            lastRequested = Math.max(lastRequested, to);
+        }
+    }
+
+    private void request(int position) {
+        if (position >= firstRequested && position <= lastRequested) return;
+        final String path = adapter.getLoadedItemPath(position);
+        if (path != null) {
+            DecodeJob.prefetch(context, path, GalleryRecyclerAdapter.THUMBNAIL_SIZE, position);
+        }
+    }
+
+    /*
+     * Number of rows whose thumbnails fit into part of memory cache and free heap
+     */
+    private int getMaxRows(int columns) {
+        final long thumbnailBytes = GalleryRecyclerAdapter.THUMBNAIL_SIZE
+                * GalleryRecyclerAdapter.THUMBNAIL_SIZE * 4;
+        final Runtime runtime = Runtime.getRuntime();
+        final long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        final long memory = Math.min(BitmapMemoryCache.getInstance().getMaxSize(), freeHeap);
+        return (int) Math.max(1, memory / MEMORY_FRACTION / thumbnailBytes / columns);
+    }
+
+    /*
+     * Cancel waiting prefetch decodes and estimate velocity again
+     */
+    private void stop() {
+        firstRequested = 0;
+        lastRequested = -1;
+        DecodeExecutor.getInstance().setPrefetchRange(0, -1);
+    }
+
+    private void logStatistics() {
+        final BitmapMemoryCache cache = BitmapMemoryCache.getInstance();
+        final int started = DecodeJob.getPrefetchStartedCount();
+        final int used = cache.getPrefetchUsedCount() + DecodeJob.getPrefetchJoinedCount();
+        final int unused = cache.getPrefetchUnusedCount() + DecodeJob.getPrefetchCancelledCount();
+        Log.d(DEBUG_TAG, "Prefetched: " + started + ", used: " + used + ", unused: " + unused
+                + ", hit rate: " + (used + unused > 0 ? used * 100 / (used + unused) : 0) + "%");
+    }
+}
@@ -0,0 +1,280 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static com.kazimierak.kacper.fancygallerylikephotopicker.Utils.ImageInfo.ORIENTATION_UNDEFINED;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Tests of ExifReader on synthetic JPEG headers. Header is SOI, optional JFIF segment and APP1
+ * segment with TIFF header, IFD0 holding orientation and IFD1 pointing to the thumbnail, which
+ * directly follows IFD1.
+ */
+
+public class ExifReaderTest {
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    /*
+     * SOI, APP1 marker and length, "Exif\0\0"
+     */
+    private static final int TIFF_START = 12;
+
+    /*
+     * TIFF header, IFD0 with one entry, IFD1 with two entries
+     */
+    private static final int THUMBNAIL_OFFSET = 8 + (2 + 12 + 4) + (2 + 2 * 12 + 4);
+    private static final int THUMBNAIL_LENGTH = 5000;
+
+    @Test
+    public void readsOrientationLittleEndian() {
+        final byte[] data = new ExifBuilder(true).orientation(6).build();
+
+        assertEquals(6, ExifReader.readOrientation(data, data.length));
+    }
+
+    @Test
+    public void readsOrientationBigEndian() {
+        final byte[] data = new ExifBuilder(false).orientation(8).build();
+
+        assertEquals(8, ExifReader.readOrientation(data, data.length));
+    }
+
+    @Test
+    public void findsThumbnailLittleEndian() {
+        final byte[] data = new ExifBuilder(true).thumbnail(TYPE_LONG).build();
+
+        assertThumbnail(TIFF_START, ExifReader.findThumbnail(data, data.length));
+    }
+
+    @Test
+    public void findsThumbnailBigEndian() {
+        final byte[] data = new ExifBuilder(false).thumbnail(TYPE_LONG).build();
+
+        assertThumbnail(TIFF_START, ExifReader.findThumbnail(data, data.length));
+    }
+
+    @Test
+    public void findsThumbnailWithShortValues() {
+        final byte[] data = new ExifBuilder(false).thumbnail(TYPE_SHORT).build();
+
+        assertThumbnail(TIFF_START, ExifReader.findThumbnail(data, data.length));
+    }
+
+    @Test
+    public void skipsSegmentsBeforeExif() {
+        final byte[] data = new ExifBuilder(true).jfif().orientation(3).thumbnail(TYPE_LONG)
+                .build();
+        final int tiffStart = TIFF_START + ExifBuilder.JFIF_LENGTH;
+
+        assertEquals(tiffStart, ExifReader.findTiffHeader(data, data.length));
+        assertEquals(3, ExifReader.readOrientation(data, data.length));
+        assertThumbnail(tiffStart, ExifReader.findThumbnail(data, data.length));
+    }
+
+    @Test
+    public void headerWithoutExif() {
+        final byte[] data = new ExifBuilder(true).jfif().withoutExif().build();
+
+        assertEquals(-1, ExifReader.findTiffHeader(data, data.length));
+        assertEquals(ORIENTATION_UNDEFINED, ExifReader.readOrientation(data, data.length));
+        assertEquals(-1, ExifReader.findThumbnail(data, data.length));
+    }
+
+    @Test
+    public void exifWithoutOrientationAndThumbnail() {
+        final byte[] data = new ExifBuilder(true).build();
+
+        assertEquals(ORIENTATION_UNDEFINED, ExifReader.readOrientation(data, data.length));
+        assertEquals(-1, ExifReader.findThumbnail(data, data.length));
+    }
+
+    @Test
+    public void ignoresOrientationOfWrongType() {
+        final byte[] data = new ExifBuilder(true).orientation(6, TYPE_LONG).build();
+
+        assertEquals(ORIENTATION_UNDEFINED, ExifReader.readOrientation(data, data.length));
+    }
+
+    @Test
+    public void ignoresEntriesBeyondLength() {
+        final byte[] data = new ExifBuilder(true).orientation(6).thumbnail(TYPE_LONG).build();
+        // Cut in the middle of IFD1
+        final int length = TIFF_START + 8 + (2 + 12 + 4) + 10;
+
+        assertEquals(6, ExifReader.readOrientation(data, length));
+        assertEquals(-1, ExifReader.findThumbnail(data, length));
+        assertEquals(ORIENTATION_UNDEFINED, ExifReader.readOrientation(data, 20));
+    }
+
+    @Test
+    public void rejectsOtherFiles() {
+        final byte[] png = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+
+        assertEquals(-1, ExifReader.findTiffHeader(png, png.length));
+        assertEquals(-1, ExifReader.findThumbnail(new byte[0], 0));
+    }
+
+    /*
+     * Thumbnail follows IFD1, its offset is counted from the beginning of the file
+     */
+    private static void assertThumbnail(int tiffStart, long thumbnail) {
+        assertEquals(tiffStart + THUMBNAIL_OFFSET, (int) (thumbnail >>> 32));
+        assertEquals(THUMBNAIL_LENGTH, (int) thumbnail);
+    }
+
+    /*
+     * Writes JPEG header with EXIF data in given byte order
+     */
+    private static class ExifBuilder {
+
+        static final int JFIF_LENGTH = 2 + 16;
+
+        private final boolean littleEndian;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private boolean jfif;
+        private boolean exif = true;
+        private int orientation = -1;
+        private int orientationType = TYPE_SHORT;
+        private int thumbnailType = -1;
+
+        ExifBuilder(boolean littleEndian) {
+            this.littleEndian = littleEndian;
+        }
+
+        ExifBuilder jfif() {
+            jfif = true;
+            return this;
+        }
+
+        ExifBuilder withoutExif() {
+            exif = false;
+            return this;
+        }
+
+        ExifBuilder orientation(int orientation) {
+            return orientation(orientation, TYPE_SHORT);
+        }
+
+        ExifBuilder orientation(int orientation, int type) {
+            this.orientation = orientation;
+            this.orientationType = type;
+            return this;
+        }
+
+        ExifBuilder thumbnail(int type) {
+            thumbnailType = type;
+            return this;
+        }
+
+        byte[] build() {
+            out.write(0xFF);
+            out.write(0xD8);
+            if (jfif) {
+                out.write(0xFF);
+                out.write(0xE0);
+                writeBigEndianShort(16);
+                out.write(new byte[] {'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0}, 0, 14);
+            }
+            if (exif) writeExif();
+            // Start of scan, any following bytes are image data
+            out.write(0xFF);
+            out.write(0xDA);
+            return out.toByteArray();
+        }
+
+        private void writeExif() {
+            final int tiffLength = THUMBNAIL_OFFSET;
+            out.write(0xFF);
+            out.write(0xE1);
+            writeBigEndianShort(2 + 6 + tiffLength);
+            out.write(new byte[] {'E', 'x', 'i', 'f', 0, 0}, 0, 6);
+
+            // TIFF header
+            out.write(littleEndian ? 'I' : 'M');
+            out.write(littleEndian ? 'I' : 'M');
+            writeShort(42);
+            writeInt(8);
+
+            // IFD0, padded with unknown tag when there is no orientation
+            writeShort(1);
+            writeEntry(orientation >= 0 ? TAG_ORIENTATION : 0x010F, orientationType,
+                    Math.max(orientation, 0));
+            writeInt(thumbnailType >= 0 ? 8 + 2 + 12 + 4 : 0);
+
+            // IFD1
+            writeShort(2);
+            writeEntry(TAG_THUMBNAIL_OFFSET, thumbnailType, THUMBNAIL_OFFSET);
+            writeEntry(TAG_THUMBNAIL_LENGTH, thumbnailType, THUMBNAIL_LENGTH);
+            writeInt(0);
+        }
+
+        private void writeEntry(int tag, int type, int value) {
+            writeShort(tag);
+            writeShort(type);
+            writeInt(1);
+            if (type == TYPE_SHORT) {
+                // Short value is left aligned in the value field
+                writeShort(value);
+                writeShort(0);
+            } else {
+                writeInt(value);
+            }
+        }
+
+        private void writeShort(int value) {
+            if (littleEndian) {
+                out.write(value);
+                out.write(value >> 8);
+            } else {
+                writeBigEndianShort(value);
+            }
+        }
+
+        private void writeBigEndianShort(int value) {
+            out.write(value >> 8);
+            out.write(value);
+        }
+
+        private void writeInt(int value) {
+            if (littleEndian) {
+                writeShort(value);
+                writeShort(value >>> 16);
+            } else {
+                writeShort(value >>> 16);
+                writeShort(value);
+            }
+        }
+    }
+}
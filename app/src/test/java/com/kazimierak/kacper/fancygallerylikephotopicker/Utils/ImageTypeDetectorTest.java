@@ -0,0 +1,216 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.Utils;
+
+import com.kazimierak.kacper.fancygallerylikephotopicker.Utils.ImageTypeDetector.ImageType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Tests of ImageTypeDetector signatures, checked on headers of every supported format and on
+ * files that only look like images.
+ */
+
+public class ImageTypeDetectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void detectsJpeg() {
+        assertEquals(ImageType.JPEG, detect(0xFF, 0xD8, 0xFF, 0xE1, 0x00, 0x10));
+    }
+
+    @Test
+    public void detectsPng() {
+        assertEquals(ImageType.PNG, detect(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0));
+    }
+
+    @Test
+    public void detectsGif() {
+        assertEquals(ImageType.GIF, detect('G', 'I', 'F', '8', '7', 'a'));
+        assertEquals(ImageType.GIF, detect('G', 'I', 'F', '8', '9', 'a'));
+        assertNull(detect('G', 'I', 'F', '8', '8', 'a'));
+    }
+
+    @Test
+    public void detectsWebp() {
+        assertEquals(ImageType.WEBP,
+                detect('R', 'I', 'F', 'F', 0x24, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8'));
+    }
+
+    @Test
+    public void rejectsOtherRiffFiles() {
+        assertNull(detect('R', 'I', 'F', 'F', 0x24, 0, 0, 0, 'W', 'A', 'V', 'E', 'f', 'm', 't'));
+    }
+
+    @Test
+    public void detectsHeif() {
+        assertEquals(ImageType.HEIF, detect(0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'h', 'e', 'i', 'c'));
+        assertEquals(ImageType.HEIF, detect(0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'm', 'i', 'f', '1'));
+    }
+
+    @Test
+    public void rejectsVideos() {
+        assertNull(detect(0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'm', 'p', '4', '2'));
+        assertNull(detect(0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'));
+    }
+
+    @Test
+    public void detectsBmp() {
+        final byte[] header = bmpHeader(1000, 54, 40);
+
+        assertEquals(ImageType.BMP, ImageTypeDetector.detect(header, header.length));
+        assertEquals(ImageType.BMP, ImageTypeDetector.detect(header, header.length, 1000));
+        assertEquals(ImageType.BMP,
+                ImageTypeDetector.detect(bmpHeader(1000, 138, 124), header.length, 1000));
+        assertEquals(ImageType.BMP,
+                ImageTypeDetector.detect(bmpHeader(1000, 26, 12), header.length, 1000));
+    }
+
+    @Test
+    public void rejectsTextStartingWithBm() {
+        final byte[] text = "BMW service history, 2016\n".getBytes();
+
+        assertNull(ImageTypeDetector.detect(text, text.length, text.length));
+    }
+
+    @Test
+    public void rejectsBmpWithUnknownDibHeader() {
+        final byte[] header = bmpHeader(1000, 54, 41);
+
+        assertNull(ImageTypeDetector.detect(header, header.length, 1000));
+    }
+
+    @Test
+    public void rejectsBmpWithPixelsInsideHeaders() {
+        final byte[] header = bmpHeader(1000, 30, 40);
+
+        assertNull(ImageTypeDetector.detect(header, header.length, 1000));
+    }
+
+    @Test
+    public void rejectsBmpLargerThanFile() {
+        final byte[] header = bmpHeader(1000, 54, 40);
+
+        assertNull(ImageTypeDetector.detect(header, header.length, 999));
+    }
+
+    @Test
+    public void comparesBmpSizeWithFileLength() throws IOException {
+        final ImageTypeDetector detector = new ImageTypeDetector();
+        final byte[] header = bmpHeader(100, 54, 40);
+
+        assertEquals(ImageType.BMP, detector.detect(writeFile("complete.bmp", header, 100)));
+        assertNull(detector.detect(writeFile("truncated.bmp", header, 60)));
+    }
+
+    @Test
+    public void usesFileLengthKnownByCaller() throws IOException {
+        final ImageTypeDetector detector = new ImageTypeDetector();
+        final File file = writeFile("image.bmp", bmpHeader(100, 54, 40), 100);
+
+        assertEquals(ImageType.BMP, detector.detect(file, 100));
+        assertNull(detector.detect(file, 60));
+        assertEquals(ImageType.BMP, detector.detect(file, -1));
+    }
+
+    @Test
+    public void rejectsMissingFile() {
+        assertNull(new ImageTypeDetector().detect(new File(folder.getRoot(), "missing.jpg")));
+    }
+
+    @Test
+    public void rejectsTruncatedSignatures() {
+        assertNull(detect(0xFF, 0xD8));
+        assertNull(detect(0x89, 'P', 'N', 'G'));
+        assertNull(detect('B', 'M', 0xE8, 0x03, 0, 0, 0, 0, 0, 0, 0x36, 0, 0, 0));
+    }
+
+    @Test
+    public void ignoresBytesBeyondLength() {
+        final byte[] data = Arrays.copyOf(new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}, 18);
+
+        assertNull(ImageTypeDetector.detect(data, 2));
+    }
+
+    @Test
+    public void rejectsEmptyData() {
+        assertNull(ImageTypeDetector.detect(new byte[18], 0));
+        assertNull(ImageTypeDetector.detect(new byte[18], 18));
+    }
+
+    /*
+     * File starting with given header, padded with zeros to given length
+     */
+    private File writeFile(String name, byte[] header, int length) throws IOException {
+        final File file = folder.newFile(name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(Arrays.copyOf(header, length));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static ImageType detect(int... values) {
+        final byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return ImageTypeDetector.detect(data, data.length);
+    }
+
+    /*
+     * BMP file header followed by size of DIB header, all values little endian
+     */
+    private static byte[] bmpHeader(int fileSize, int pixelOffset, int dibHeaderSize) {
+        final byte[] header = new byte[18];
+        header[0] = 'B';
+        header[1] = 'M';
+        writeIntLittleEndian(header, 2, fileSize);
+        writeIntLittleEndian(header, 10, pixelOffset);
+        writeIntLittleEndian(header, 14, dibHeaderSize);
+        return header;
+    }
+
+    private static void writeIntLittleEndian(byte[] data, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            data[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+}
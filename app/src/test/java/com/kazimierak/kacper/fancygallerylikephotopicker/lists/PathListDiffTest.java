@@ -0,0 +1,173 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.lists;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Tests of PathListDiff. Every diff is replayed on the old list, which must give the new list.
+ */
+
+public class PathListDiffTest {
+
+    private static final int LARGE_COUNT = 100000;
+
+    @Test
+    public void equalListsGiveEmptyDiff() {
+        final List<String> paths = Arrays.asList("/a/1.jpg", "/a/2.jpg", "/b/3.jpg");
+        final PathListDiff diff = PathListDiff.calculate(paths, new ArrayList<>(paths));
+
+        assertTrue(diff.isEmpty());
+        assertEquals(0, replay(diff).changedCount);
+    }
+
+    @Test
+    public void insertsAndRemovesItems() {
+        assertDiff(Arrays.asList("/a/1.jpg", "/a/2.jpg", "/a/3.jpg", "/a/4.jpg"),
+                Arrays.asList("/a/0.jpg", "/a/2.jpg", "/a/3.jpg", "/a/5.jpg", "/a/6.jpg"));
+    }
+
+    @Test
+    public void movedItemIsRemovedAndInserted() {
+        final Replay replay = assertDiff(Arrays.asList("/a/1.jpg", "/a/2.jpg", "/a/3.jpg"),
+                Arrays.asList("/a/2.jpg", "/a/3.jpg", "/a/1.jpg"));
+
+        // Only the moved item changes, the other two are kept in place
+        assertEquals(2, replay.changedCount);
+    }
+
+    @Test
+    public void emptyLists() {
+        final List<String> paths = Arrays.asList("/a/1.jpg", "/a/2.jpg");
+
+        assertDiff(Collections.<String>emptyList(), paths);
+        assertDiff(paths, Collections.<String>emptyList());
+    }
+
+    @Test
+    public void reversedList() {
+        final List<String> paths = createPaths(100);
+        final List<String> reversed = new ArrayList<>(paths);
+        Collections.reverse(reversed);
+
+        assertDiff(paths, reversed);
+    }
+
+    @Test
+    public void randomChanges() {
+        final Random random = new Random(42);
+        for (int run = 0; run < 50; run++) {
+            final List<String> paths = createPaths(200);
+            assertDiff(paths, changeRandomly(paths, random, 20));
+        }
+    }
+
+    /*
+     * Diff of a large gallery, where some photos were deleted, added and moved. Every step of
+     * changeRandomly removes or inserts at most four items, unchanged items must be kept in place.
+     */
+    @Test
+    public void largeLists() {
+        final int changeCount = LARGE_COUNT / 100;
+        final List<String> paths = createPaths(LARGE_COUNT);
+        final List<String> changed = changeRandomly(paths, new Random(7), changeCount);
+
+        final Replay replay = replay(PathListDiff.calculate(paths, changed));
+        assertEquals(changed, replay.list);
+        assertTrue(replay.changedCount + " items changed", replay.changedCount <= 4 * changeCount);
+    }
+
+    /*
+     * Replay the diff on the old list and check it leads to the new list
+     */
+    private static Replay assertDiff(List<String> oldList, List<String> newList) {
+        final Replay replay = replay(PathListDiff.calculate(oldList, newList));
+        assertEquals(newList, replay.list);
+        return replay;
+    }
+
+    private static Replay replay(final PathListDiff diff) {
+        final Replay replay = new Replay(diff.getOldList());
+        diff.dispatchUpdatesTo(new PathListDiff.RangeCallback() {
+            @Override
+            public void onRemoved(int position, int count) {
+                replay.list.subList(position, position + count).clear();
+                replay.changedCount += count;
+            }
+
+            @Override
+            public void onInserted(int position, int count) {
+                replay.list.addAll(position,
+                        diff.getNewList().subList(position, position + count));
+                replay.changedCount += count;
+            }
+        });
+        return replay;
+    }
+
+    /*
+     * Remove, add and move given number of items each
+     */
+    private static List<String> changeRandomly(List<String> paths, Random random, int count) {
+        final List<String> changed = new ArrayList<>(paths);
+        for (int i = 0; i < count; i++) {
+            changed.remove(random.nextInt(changed.size()));
+            changed.add(random.nextInt(changed.size() + 1), "/new/IMG_" + i + ".jpg");
+            final String moved = changed.remove(random.nextInt(changed.size()));
+            changed.add(random.nextInt(changed.size() + 1), moved);
+        }
+        return changed;
+    }
+
+    private static List<String> createPaths(int count) {
+        final List<String> paths = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            paths.add("/sdcard/DCIM/Camera/IMG_" + i + ".jpg");
+        }
+        return paths;
+    }
+
+    /*
+     * Old list transformed by the diff, and number of removed and inserted items
+     */
+    private static class Replay {
+        final List<String> list;
+        int changedCount;
+
+        Replay(List<String> oldList) {
+            list = new ArrayList<>(oldList);
+        }
+    }
+}
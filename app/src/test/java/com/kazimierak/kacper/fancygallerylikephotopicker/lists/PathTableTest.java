@@ -0,0 +1,328 @@
+package com.kazimierak.kacper.fancygallerylikephotopicker.lists;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Kacper Kazimierak 2016-05-29.
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Kacper Kazimierak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *
+ * Tests of PathTable. Memory usage and removal of many positions are also measured on a large
+ * table.
+ */
+
+public class PathTableTest {
+
+    private static final int LARGE_COUNT = 100000;
+    private static final int LOOKUP_COUNT = 10000;
+
+    @Test
+    public void storesPaths() {
+        final List<String> paths = Arrays.asList("/sdcard/DCIM/Camera/IMG_1.jpg",
+                "/sdcard/Pictures/a.png", "/sdcard/DCIM/Camera/IMG_2.jpg", "/root.gif");
+        final PathTable table = new PathTable();
+        table.addAll(paths);
+
+        assertEquals(paths, table);
+        assertEquals(table.getDirectoryIndex(0), table.getDirectoryIndex(2));
+        assertNotEquals(table.getDirectoryIndex(0), table.getDirectoryIndex(1));
+    }
+
+    @Test
+    public void storesNamesOutsideLatin1() {
+        // Names with characters beyond Latin-1 are stored with two bytes per character
+        final List<String> paths = Arrays.asList("/sdcard/Zdj\u0119cia/\u017c\u00f3\u0142w.jpg",
+                "/sdcard/Zdj\u0119cia/caf\u00e9.jpg", "/sdcard/\u5199\u771f/\u732b.png",
+                "/sdcard/DCIM/IMG_1.jpg");
+        final PathTable table = new PathTable();
+        table.addAll(paths);
+
+        assertEquals(paths, table);
+    }
+
+    @Test
+    public void storesPathsWithoutDirectory() {
+        final List<String> paths = Arrays.asList("IMG_1.jpg", "/root.gif", "relative/IMG_2.jpg",
+                "IMG_3.jpg");
+        final PathTable table = new PathTable();
+        table.addAll(paths);
+
+        assertEquals(paths, table);
+        assertEquals(table.getDirectoryIndex(0), table.getDirectoryIndex(3));
+        assertNotEquals(table.getDirectoryIndex(0), table.getDirectoryIndex(1));
+    }
+
+    @Test
+    public void clearRemovesDirectories() {
+        final PathTable table = new PathTable();
+        for (int i = 0; i < 1000; i++) {
+            table.add("/sdcard/Folder" + i + "/IMG_" + i + ".jpg");
+        }
+        final long memoryUsage = table.getMemoryUsage();
+        table.clear();
+        table.add("/sdcard/Other/IMG_1.jpg");
+
+        assertEquals(Arrays.asList("/sdcard/Other/IMG_1.jpg"), table);
+        assertEquals(0, table.getDirectoryIndex(0));
+        assertTrue(table.getMemoryUsage() < memoryUsage);
+    }
+
+    @Test
+    public void replaceAllDropsUnusedDirectories() {
+        final PathTable table = createTable(10);
+        table.replaceAll(Arrays.asList(path(3), path(13)));
+
+        assertEquals(Arrays.asList(path(3), path(13)), table);
+        assertEquals(0, table.getDirectoryIndex(0));
+        assertEquals(0, table.getDirectoryIndex(1));
+    }
+
+    @Test
+    public void getPathReplacesBuilderContent() {
+        final PathTable table = createTable(3);
+        final StringBuilder path = new StringBuilder("/sdcard/previous/path.jpg");
+
+        assertEquals(path(1), table.getPath(1, path).toString());
+        assertEquals(path(0), table.getPath(0, path).toString());
+    }
+
+    /*
+     * Paths are read into reused builder while binding grid cells, allocated bytes are measured
+     * where the JVM supports it
+     */
+    @Test
+    public void getPathDoesNotAllocate() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported()
+                && threads.isThreadAllocatedMemoryEnabled());
+
+        final PathTable table = new PathTable();
+        table.addAll(createPaths(100));
+        table.add("/sdcard/Zdj\u0119cia/\u017c\u00f3\u0142w.jpg");
+        final StringBuilder path = new StringBuilder(128);
+        // Warm up, so class loading and compilation are not measured
+        int length = readPaths(table, path);
+
+        final long threadId = Thread.currentThread().getId();
+        final long start = threads.getThreadAllocatedBytes(threadId);
+        length += readPaths(table, path);
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - start;
+
+        assertTrue(length > 0);
+        // String created for every read would take at least 24 bytes each
+        assertTrue("Allocated " + allocated + " bytes", allocated < LOOKUP_COUNT);
+    }
+
+    @Test
+    public void insertedItemsGetNewIds() {
+        final PathTable table = createTable(3);
+        final int firstId = table.getId(0);
+        final int lastId = table.getId(2);
+        table.add(1, "/sdcard/DCIM/new.jpg");
+
+        assertEquals("/sdcard/DCIM/new.jpg", table.get(1));
+        assertEquals(firstId, table.getId(0));
+        assertEquals(lastId, table.getId(3));
+        assertNotEquals(firstId, table.getId(1));
+        assertNotEquals(lastId, table.getId(1));
+    }
+
+    @Test
+    public void removeReturnsPath() {
+        final PathTable table = createTable(3);
+
+        assertEquals(path(1), table.remove(1));
+        assertEquals(Arrays.asList(path(0), path(2)), table);
+    }
+
+    @Test
+    public void replaceAllKeepsIdsOfRemainingPaths() {
+        final PathTable table = createTable(3);
+        final int id = table.getId(2);
+        table.replaceAll(Arrays.asList("/sdcard/DCIM/new.jpg", path(2)));
+
+        assertEquals(Arrays.asList("/sdcard/DCIM/new.jpg", path(2)), table);
+        assertEquals(id, table.getId(1));
+        assertNotEquals(id, table.getId(0));
+    }
+
+    @Test
+    public void modificationCountChangesWithItems() {
+        final PathTable table = createTable(3);
+        int count = table.getModificationCount();
+        table.add("/sdcard/DCIM/new.jpg");
+        assertNotEquals(count, count = table.getModificationCount());
+        table.remove(0);
+        assertNotEquals(count, count = table.getModificationCount());
+        table.removePositions(new int[] {0}, 1);
+        assertNotEquals(count, count = table.getModificationCount());
+        table.replaceAll(createPaths(2));
+        assertNotEquals(count, table.getModificationCount());
+    }
+
+    /*
+     * Table of a large gallery must take less memory than list of path strings, whose size is
+     * estimated as object and array headers with two bytes per character
+     */
+    @Test
+    public void largeTableIsSmallerThanStrings() {
+        final List<String> paths = createPaths(LARGE_COUNT);
+        final PathTable table = new PathTable();
+        table.addAll(paths);
+
+        long stringsSize = 0;
+        for (String path : paths) {
+            stringsSize += 4 + 40 + 2 * path.length();
+        }
+        assertEquals(paths, table);
+        assertTrue(LARGE_COUNT + " paths take " + table.getMemoryUsage() + " bytes in PathTable, "
+                + stringsSize + " bytes as strings", table.getMemoryUsage() < stringsSize / 2);
+    }
+
+    @Test
+    public void removePositionsRemovesGivenItems() {
+        final PathTable table = createTable(10);
+        final int removed = table.removePositions(new int[] {0, 3, 4, 9}, 4);
+
+        assertEquals(4, removed);
+        assertEquals(Arrays.asList(path(1), path(2), path(5), path(6), path(7), path(8)), table);
+    }
+
+    @Test
+    public void removePositionsKeepsIdsOfRemainingItems() {
+        final PathTable table = createTable(5);
+        final int id = table.getId(3);
+        table.removePositions(new int[] {1, 2}, 2);
+
+        assertEquals(id, table.getId(1));
+    }
+
+    @Test
+    public void removePositionsIgnoresDuplicatesAndUnusedElements() {
+        final PathTable table = createTable(6);
+        final int removed = table.removePositions(new int[] {1, 1, 4, 4, 5}, 4);
+
+        assertEquals(2, removed);
+        assertEquals(Arrays.asList(path(0), path(2), path(3), path(5)), table);
+    }
+
+    @Test
+    public void removePositionsWithoutPositionsKeepsTable() {
+        final PathTable table = createTable(3);
+
+        assertEquals(0, table.removePositions(new int[0], 0));
+        assertEquals(createPaths(3), table);
+    }
+
+    @Test
+    public void removePositionsRemovesAllItems() {
+        final PathTable table = createTable(4);
+
+        assertEquals(4, table.removePositions(new int[] {0, 1, 2, 3}, 4));
+        assertEquals(0, table.size());
+        table.add("/sdcard/DCIM/new.jpg");
+        assertEquals(Arrays.asList("/sdcard/DCIM/new.jpg"), table);
+    }
+
+    @Test
+    public void removePositionsCompactsNames() {
+        final PathTable table = createTable(1000);
+        final int[] positions = new int[900];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        table.removePositions(positions, positions.length);
+
+        assertEquals(createPaths(1000).subList(900, 1000), table);
+    }
+
+    /*
+     * Removes every other item of a large table, the removal used to shift the rest of the list
+     * for every removed item. Single pass must be faster than removing items from ArrayList.
+     */
+    @Test
+    public void removePositionsFromLargeTable() {
+        final List<String> paths = createPaths(LARGE_COUNT);
+        final int[] positions = new int[LARGE_COUNT / 2];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = 2 * i;
+        }
+
+        final PathTable table = new PathTable();
+        table.addAll(paths);
+        long start = System.nanoTime();
+        table.removePositions(positions, positions.length);
+        final long tableTime = System.nanoTime() - start;
+
+        final List<String> list = new ArrayList<>(paths);
+        start = System.nanoTime();
+        for (int i = positions.length - 1; i >= 0; i--) {
+            list.remove(positions[i]);
+        }
+        final long listTime = System.nanoTime() - start;
+
+        assertEquals(list, table);
+        assertTrue("PathTable.removePositions: " + tableTime / 1000000 + " ms, ArrayList.remove: "
+                + listTime / 1000000 + " ms", tableTime < listTime);
+    }
+
+    private static int readPaths(PathTable table, StringBuilder path) {
+        int length = 0;
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            length += table.getPath(i % table.size(), path).length();
+        }
+        return length;
+    }
+
+    private static PathTable createTable(int count) {
+        final PathTable table = new PathTable();
+        table.addAll(createPaths(count));
+        return table;
+    }
+
+    private static List<String> createPaths(int count) {
+        final List<String> paths = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            paths.add(path(i));
+        }
+        return paths;
+    }
+
+    private static String path(int i) {
+        return "/sdcard/DCIM/Camera" + i % 10 + "/IMG_" + i + ".jpg";
+    }
+}